@@ -0,0 +1,172 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Per call telemetry file: a header describing the call followed by fixed size records
+ * of an int time in ms and one float per {@link CallQualitySamples.Field}, about 50 bytes
+ * a second. A file cut short by a crash is read up to its last whole record.
+ * The exporters turn a file into CSV or JSON for comparing Pis, codecs and networks.
+ */
+public final class CallQualityFile {
+
+    static final int MAGIC = 0x43514631; //"CQF1"
+    static final String EXTENSION = ".cq";
+
+    /** What the samples of a file were recorded with. */
+    public static final class Header {
+        public final long startedAt;
+        public final String device;
+        public final String codec;
+        public final String transport;
+        public final int intervalMs;
+        final int fields;
+
+        public Header(long startedAt, String device, String codec, String transport, int intervalMs) {
+            this(startedAt, device, codec, transport, intervalMs, CallQualitySamples.FIELDS);
+        }
+
+        private Header(long startedAt, String device, String codec, String transport, int intervalMs, int fields) {
+            this.startedAt = startedAt;
+            this.device = device;
+            this.codec = codec;
+            this.transport = transport;
+            this.intervalMs = intervalMs;
+            this.fields = fields;
+        }
+    }
+
+    private CallQualityFile() {
+    }
+
+    public static void writeHeader(DataOutputStream out, Header h) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(h.fields);
+        out.writeLong(h.startedAt);
+        out.writeUTF(h.device);
+        out.writeUTF(h.codec);
+        out.writeUTF(h.transport);
+        out.writeInt(h.intervalMs);
+    }
+
+    public static Header readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a call quality file");
+        }
+        int fields = in.readInt();
+        long startedAt = in.readLong();
+        String device = in.readUTF();
+        String codec = in.readUTF();
+        String transport = in.readUTF();
+        int intervalMs = in.readInt();
+        return new Header(startedAt, device, codec, transport, intervalMs, fields);
+    }
+
+    private interface RecordSink {
+        void record(int timeMs, float[] values) throws IOException;
+    }
+
+    //visits whole records, the values array is reused
+    private static void readRecords(DataInputStream in, Header h, RecordSink sink) throws IOException {
+        float[] values = new float[h.fields];
+        while (true) {
+            int time;
+            try {
+                time = in.readInt();
+                for (int f = 0; f < h.fields; f++) {
+                    values[f] = in.readFloat();
+                }
+            } catch (EOFException e) {
+                return;
+            }
+            sink.record(time, values);
+        }
+    }
+
+    private static String column(int index) {
+        CallQualitySamples.Field[] fields = CallQualitySamples.Field.values();
+        return index < fields.length ? fields[index].name().toLowerCase(Locale.ROOT) : "field" + index;
+    }
+
+    private static String format(float value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * One line per sample, the call description is repeated on every line so the CSVs
+     * of several calls can be concatenated, with withTitle false, into one table.
+     */
+    public static void toCsv(InputStream stream, Writer out, boolean withTitle) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        Header h = readHeader(in);
+        if (withTitle) {
+            out.write("started_at,device,codec,transport,time_ms");
+            for (int f = 0; f < h.fields; f++) {
+                out.write("," + column(f));
+            }
+            out.write('\n');
+        }
+        String prefix = h.startedAt + "," + csv(h.device) + "," + csv(h.codec) + "," + csv(h.transport) + ",";
+        readRecords(in, h, (timeMs, values) -> {
+            out.write(prefix);
+            out.write(String.valueOf(timeMs));
+            for (float v : values) {
+                out.write("," + format(v));
+            }
+            out.write('\n');
+        });
+        out.flush();
+    }
+
+    /** The header as an object with the samples as an array of arrays in column order. */
+    public static void toJson(InputStream stream, Writer out) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        Header h = readHeader(in);
+        StringBuilder samples = new StringBuilder();
+        readRecords(in, h, (timeMs, values) -> {
+            samples.append(samples.length() == 0 ? "\n    [" : ",\n    [").append(timeMs);
+            for (float v : values) {
+                samples.append(',').append(format(v));
+            }
+            samples.append(']');
+        });
+        out.write("{\n  \"startedAt\": " + h.startedAt +
+                ",\n  \"device\": " + quote(h.device) +
+                ",\n  \"codec\": " + quote(h.codec) +
+                ",\n  \"transport\": " + quote(h.transport) +
+                ",\n  \"intervalMs\": " + h.intervalMs +
+                ",\n  \"columns\": [\"time_ms\"");
+        for (int f = 0; f < h.fields; f++) {
+            out.write(", " + quote(column(f)));
+        }
+        out.write("],\n  \"samples\": [" + samples + "\n  ]\n}\n");
+        out.flush();
+    }
+
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
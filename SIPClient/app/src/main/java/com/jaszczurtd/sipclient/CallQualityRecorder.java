@@ -0,0 +1,225 @@
+package com.jaszczurtd.sipclient;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.linphone.core.Address;
+import org.linphone.core.Call;
+import org.linphone.core.CallParams;
+import org.linphone.core.CallStats;
+import org.linphone.core.PayloadType;
+import org.linphone.core.StreamType;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Samples the audio and video statistics of the running call every
+ * {@link #SAMPLE_INTERVAL_MS} into a {@link CallQualitySamples} ring and appends them to
+ * a {@link CallQualityFile} of the call every {@link #FLUSH_SAMPLES} samples, so a crash
+ * loses at most that much. Only the last {@link #MAX_FILES} calls are kept.
+ * Linphone thread only.
+ */
+final class CallQualityRecorder implements Constants {
+
+    static final long SAMPLE_INTERVAL_MS = 1000;
+    static final int FLUSH_SAMPLES = 30;
+    //room for the flushes delayed by a slow disk
+    static final int CAPACITY = FLUSH_SAMPLES * 4;
+    static final int MAX_FILES = 100;
+
+    private final Handler handler;
+    private final File dir;
+    private final CallQualitySamples samples = new CallQualitySamples(CAPACITY);
+    private final Runnable sampleTask = this::sample;
+    private Call call;
+    private long startedAt;
+    private CallQualityWriter out;
+
+    /** @param handler handler of the Linphone thread */
+    CallQualityRecorder(Handler handler, File dir) {
+        this.handler = handler;
+        this.dir = dir;
+    }
+
+    /** Starts recording c unless it is recorded already, renegotiations keep the same file. */
+    void streamsRunning(Call c, Transport transport) {
+        if (call == c) {
+            return;
+        }
+        callEnded();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "call quality dir not created:" + dir);
+            return;
+        }
+        prune();
+        long now = System.currentTimeMillis();
+        String device = device(c);
+        File file = new File(dir, now + "_" + device + CallQualityFile.EXTENSION);
+        try {
+            out = new CallQualityWriter(new FileOutputStream(file), new CallQualityFile.Header(now, device,
+                    codec(c), String.valueOf(transport), (int) SAMPLE_INTERVAL_MS));
+        } catch (IOException e) {
+            Log.e(TAG, "call quality file error:" + e);
+            close();
+            return;
+        }
+        call = c;
+        startedAt = SystemClock.elapsedRealtime();
+        handler.postDelayed(sampleTask, SAMPLE_INTERVAL_MS);
+    }
+
+    void callEnded() {
+        handler.removeCallbacks(sampleTask);
+        call = null;
+        close();
+    }
+
+    private void sample() {
+        Call c = call;
+        if (c == null) {
+            return;
+        }
+        //while paused or updating the streams are idle, the gap in the times shows it
+        if (c.getState() == Call.State.StreamsRunning) {
+            CallStats audio = c.getStats(StreamType.Audio);
+            CallStats video = c.getStats(StreamType.Video);
+            CallParams params = c.getCurrentParams();
+            float[] row = samples.row();
+            fill(row, CallQualitySamples.Field.AUDIO_JITTER.ordinal(), audio);
+            fill(row, CallQualitySamples.Field.VIDEO_JITTER.ordinal(), video);
+            row[CallQualitySamples.Field.VIDEO_FPS.ordinal()] = params != null ? params.getReceivedFramerate() : 0;
+            samples.commit((int) (SystemClock.elapsedRealtime() - startedAt));
+            if (samples.pending() >= FLUSH_SAMPLES) {
+                flush();
+            }
+        }
+        handler.postDelayed(sampleTask, SAMPLE_INTERVAL_MS);
+    }
+
+    //jitter, loss, down, up and RTT of a stream starting at index
+    private static void fill(float[] row, int index, CallStats stats) {
+        if (stats == null) {
+            Arrays.fill(row, index, index + 5, 0);
+            return;
+        }
+        //jitter and RTT are reported in seconds
+        row[index] = stats.getReceiverInterarrivalJitter() * 1000;
+        row[index + 1] = stats.getReceiverLossRate();
+        row[index + 2] = stats.getDownloadBandwidth();
+        row[index + 3] = stats.getUploadBandwidth();
+        row[index + 4] = stats.getRoundTripDelay() * 1000;
+    }
+
+    private void flush() {
+        if (out != null && !out.write(samples)) {
+            //the writer has closed the file, the rest of the call isn't recorded
+            Log.e(TAG, "call quality write error:" + out.getError());
+            out = null;
+        }
+    }
+
+    private void close() {
+        if (out != null) {
+            IOException e = out.close(samples);
+            if (e != null) {
+                Log.e(TAG, "call quality write error:" + e);
+            }
+            out = null;
+        }
+        if (samples.getOverwritten() > 0) {
+            Log.e(TAG, "call quality samples lost:" + samples.getOverwritten());
+        }
+        samples.clear();
+    }
+
+    //keeps room for the new call within MAX_FILES
+    private void prune() {
+        File[] files = files(dir);
+        for (int i = 0; i <= files.length - MAX_FILES; i++) {
+            if (!files[i].delete()) {
+                Log.e(TAG, "call quality file not deleted:" + files[i]);
+            }
+        }
+    }
+
+    /** Recorded files, oldest first. */
+    static File[] files(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(CallQualityFile.EXTENSION));
+        if (files == null) {
+            return new File[0];
+        }
+        //names start with the wall clock of the call
+        Arrays.sort(files, (a, b) -> Long.compare(startOf(a), startOf(b)));
+        return files;
+    }
+
+    private static long startOf(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('_')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Exports every recorded call to target: one JSON per call and all of them in
+     * calls.csv. Any thread, returns the number of calls exported.
+     */
+    static int export(File dir, File target) throws IOException {
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("cannot create " + target);
+        }
+        int exported = 0;
+        try (Writer csv = writer(new File(target, "calls.csv"))) {
+            for (File f : files(dir)) {
+                String name = f.getName();
+                String base = name.substring(0, name.length() - CallQualityFile.EXTENSION.length());
+                //a file cut short in its header is skipped, not the whole export
+                try (InputStream in = new FileInputStream(f);
+                     Writer json = writer(new File(target, base + ".json"))) {
+                    CallQualityFile.toJson(in, json);
+                } catch (IOException e) {
+                    Log.e(TAG, "call quality export error:" + f + " " + e);
+                    continue;
+                }
+                try (InputStream in = new FileInputStream(f)) {
+                    CallQualityFile.toCsv(in, csv, exported == 0);
+                }
+                exported++;
+            }
+        }
+        return exported;
+    }
+
+    private static Writer writer(File f) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8));
+    }
+
+    private static String device(Call c) {
+        Address address = c.getRemoteAddress();
+        String user = address.getUsername();
+        //only letters, digits and the like in file names
+        return (user != null ? user : "unknown").replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static String codec(Call c) {
+        CallParams params = c.getCurrentParams();
+        PayloadType video = params != null ? params.getUsedVideoPayloadType() : null;
+        if (video != null) {
+            return video.getMimeType();
+        }
+        PayloadType audio = params != null ? params.getUsedAudioPayloadType() : null;
+        return audio != null ? audio.getMimeType() : "";
+    }
+}
@@ -0,0 +1,87 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed size ring of call quality samples kept in primitive arrays, a sample is written
+ * into {@link #row()} and committed with its time, nothing is allocated per sample.
+ * Samples not drained yet are overwritten once the ring is full, the recorder drains
+ * it well before that.
+ */
+public class CallQualitySamples {
+
+    /** Columns of a sample, kbps in kbit/s, jitter and RTT in ms, loss in percent. */
+    public enum Field {
+        AUDIO_JITTER, AUDIO_LOSS, AUDIO_KBPS_DOWN, AUDIO_KBPS_UP, AUDIO_RTT,
+        VIDEO_JITTER, VIDEO_LOSS, VIDEO_KBPS_DOWN, VIDEO_KBPS_UP, VIDEO_RTT, VIDEO_FPS
+    }
+
+    static final int FIELDS = Field.values().length;
+
+    private final int capacity;
+    //ms since the start of the call
+    private final int[] times;
+    private final float[] values;
+    private final float[] row = new float[FIELDS];
+    private int next;
+    private int pending;
+    private long overwritten;
+
+    public CallQualitySamples(int capacity) {
+        this.capacity = capacity;
+        times = new int[capacity];
+        values = new float[capacity * FIELDS];
+    }
+
+    /** Staging row of the next sample, indexed by {@link Field#ordinal()}. */
+    public float[] row() {
+        return row;
+    }
+
+    public void set(Field field, float value) {
+        row[field.ordinal()] = value;
+    }
+
+    /** Stores the staging row as a sample taken timeMs after the start. */
+    public void commit(int timeMs) {
+        times[next] = timeMs;
+        System.arraycopy(row, 0, values, next * FIELDS, FIELDS);
+        next = (next + 1) % capacity;
+        if (pending == capacity) {
+            overwritten++;
+        } else {
+            pending++;
+        }
+    }
+
+    /** Samples committed and not drained yet. */
+    public int pending() {
+        return pending;
+    }
+
+    /** Samples lost because the ring was full, should stay 0. */
+    public long getOverwritten() {
+        return overwritten;
+    }
+
+    /** Drops the pending samples and the lost count, for the next call. */
+    public void clear() {
+        next = 0;
+        pending = 0;
+        overwritten = 0;
+    }
+
+    /** Writes the pending samples, oldest first, in the record format of {@link CallQualityFile}. */
+    public void drainTo(DataOutputStream out) throws IOException {
+        int index = (next - pending + capacity) % capacity;
+        for (; pending > 0; pending--) {
+            out.writeInt(times[index]);
+            int base = index * FIELDS;
+            for (int f = 0; f < FIELDS; f++) {
+                out.writeFloat(values[base + f]);
+            }
+            index = (index + 1) % capacity;
+        }
+    }
+}
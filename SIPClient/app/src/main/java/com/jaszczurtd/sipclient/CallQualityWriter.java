@@ -0,0 +1,72 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Appends the samples of one call to its {@link CallQualityFile}. After the first write
+ * error the file is closed without flushing again, the buffered bytes would only fail
+ * once more, and the rest of the call isn't written.
+ */
+final class CallQualityWriter {
+
+    private DataOutputStream out;
+    private IOException error;
+
+    /** Writes the header, the file is closed when that fails. */
+    CallQualityWriter(OutputStream file, CallQualityFile.Header header) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            CallQualityFile.writeHeader(out, header);
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /** Drains the pending samples into the file, false when that failed just now. */
+    boolean write(CallQualitySamples samples) {
+        if (out == null) {
+            return true;
+        }
+        try {
+            samples.drainTo(out);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            error = e;
+            discard();
+            return false;
+        }
+    }
+
+    /** Writes what is pending and closes the file, returns the first error of the file or null. */
+    IOException close(CallQualitySamples samples) {
+        write(samples);
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                error = e;
+            }
+            out = null;
+        }
+        return error;
+    }
+
+    IOException getError() {
+        return error;
+    }
+
+    //closing flushes too, its error is the one already known
+    private void discard() {
+        DataOutputStream failed = out;
+        out = null;
+        try {
+            failed.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
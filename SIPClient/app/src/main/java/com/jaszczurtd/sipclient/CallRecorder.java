@@ -0,0 +1,104 @@
+package com.jaszczurtd.sipclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.linphone.core.Call;
+import org.linphone.core.CallParams;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records the running call with the Linphone call recorder into one {@link RecordingStore}
+ * segment per call. Linphone takes the record file only from the params of the INVITE, a
+ * new file in the middle of the call would need a re-INVITE, so the call isn't split into
+ * timed segments and eviction frees space a call at a time. The store is evicted and its
+ * index saved after every call. Linphone thread only, the recorder itself writes on the
+ * media threads.
+ */
+final class CallRecorder implements Constants {
+
+    private final RecordingStore store;
+    //record file put into the params of the last INVITE
+    private File pending;
+    private String pendingDevice;
+    private long pendingStartedAt;
+    private Call call;
+    private String device;
+    private long callStartedAt;
+    private long callStartedElapsed;
+    private File segment;
+
+    CallRecorder(RecordingStore store) {
+        this.store = store;
+    }
+
+    /** Sets the record file of an outgoing call to sipUser, right before its INVITE with params. */
+    void callStarting(CallParams params, String sipUser) {
+        long now = System.currentTimeMillis();
+        String d = RecordingStore.deviceOf(sipUser);
+        try {
+            pending = store.newSegmentFile(now, 0, d);
+        } catch (IOException e) {
+            Log.e(TAG, "recording error:" + e);
+            pending = null;
+            return;
+        }
+        pendingDevice = d;
+        pendingStartedAt = now;
+        params.setRecordFile(pending.getAbsolutePath());
+    }
+
+    /** Starts recording c unless it is recorded already, renegotiations keep the file. */
+    void streamsRunning(Call c) {
+        if (call == c) {
+            return;
+        }
+        callEnded();
+        //e.g. an incoming call or one started while recording was off
+        String path = c.getParams().getRecordFile();
+        if (pending == null || !pending.getAbsolutePath().equals(path)) {
+            Log.v(TAG, "call not recorded, no record file in its INVITE");
+            return;
+        }
+        call = c;
+        segment = pending;
+        device = pendingDevice;
+        callStartedAt = pendingStartedAt;
+        callStartedElapsed = SystemClock.elapsedRealtime();
+        pending = null;
+        call.startRecording();
+        Log.v(TAG, "recording " + segment.getName());
+    }
+
+    void callEnded() {
+        if (call == null) {
+            return;
+        }
+        if (call.isRecording()) {
+            call.stopRecording();
+        }
+        long duration = SystemClock.elapsedRealtime() - callStartedElapsed;
+        if (segment.length() > 0) {
+            store.add(new RecordingStore.Segment(callStartedAt, 0, device, 0, duration, segment.length()));
+        } else {
+            //the recorder failed to open or write the file, an empty one can't be played
+            Log.e(TAG, "recording not written:" + segment.getName());
+            if (segment.exists() && !segment.delete()) {
+                Log.e(TAG, "recording not deleted:" + segment.getName());
+            }
+        }
+        call = null;
+        segment = null;
+        int evicted = store.evict(System.currentTimeMillis());
+        if (evicted > 0) {
+            Log.v(TAG, "recordings evicted:" + evicted);
+        }
+        try {
+            store.save();
+        } catch (IOException e) {
+            Log.e(TAG, "recordings index write error:" + e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import org.linphone.core.Address;
+import org.linphone.core.AudioDevice;
+import org.linphone.core.CallParams;
+import org.linphone.core.Core;
+import org.linphone.core.Factory;
+import org.linphone.core.NatPolicy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Call setup work which doesn't depend on the call itself: the CallParams template with
+ * the speaker as output and the callee addresses. Prepared once per Core and refreshed
+ * when the audio devices change, so a call only copies the params and sends the INVITE.
+ * Linphone thread only.
+ */
+final class CallSetupCache implements Constants {
+
+    private final Core core;
+    private final String sipDomain;
+    private final Map<String, Address> addresses = new HashMap<>();
+    private CallParams params;
+
+    CallSetupCache(Core core, String sipDomain) {
+        this.core = core;
+        this.sipDomain = sipDomain;
+    }
+
+    /** Builds everything up front, meant to run while idle after the Core has started. */
+    void prepare(DeviceRegistry devices) {
+        callParams();
+        prepareAddresses(devices);
+        warmUpNat();
+    }
+
+    /** Addresses of the devices, also when the registry has changed. */
+    void prepareAddresses(DeviceRegistry devices) {
+        if (devices == null) {
+            return;
+        }
+        for (DeviceRegistry.Device d : devices.devices()) {
+            address(d.sipUser);
+        }
+    }
+
+    /** A copy of the template, null when the Core can't create params. */
+    CallParams callParams() {
+        if (params == null) {
+            params = createParams();
+        }
+        return params != null ? params.copy() : null;
+    }
+
+    /** sip:user@domain, null for an invalid user. */
+    Address address(String user) {
+        Address address = addresses.get(user);
+        if (address == null) {
+            address = Factory.instance().createAddress("sip:" + user + "@" + sipDomain);
+            if (address != null) {
+                addresses.put(user, address);
+            }
+        }
+        return address;
+    }
+
+    /** Audio route changed, e.g. a headset came or went, the next call picks the speaker again. */
+    void audioDevicesChanged() {
+        Log.v(TAG, "audio devices changed, call params rebuilt on the next call");
+        params = null;
+    }
+
+    /**
+     * Linphone gathers ICE candidates per call and has no API to do it ahead, what can be
+     * done while idle is resolving the STUN server. Without ICE (calls over the VPN) this
+     * does nothing.
+     */
+    void warmUpNat() {
+        NatPolicy nat = core.getNatPolicy();
+        if (nat != null && nat.isIceEnabled() && nat.getStunServer() != null) {
+            Log.v(TAG, "resolving STUN server " + nat.getStunServer());
+            nat.resolveStunServer();
+        }
+    }
+
+    private CallParams createParams() {
+        CallParams p = core.createCallParams(null);
+        if (p == null) {
+            return null;
+        }
+        p.setCameraEnabled(true);
+        p.setAudioEnabled(true);
+        p.setVideoEnabled(true);
+
+        p.setAvpfEnabled(false);
+
+        for (AudioDevice audioDevice : core.getExtendedAudioDevices()) {
+            Log.i(TAG, "deviceName：" + audioDevice.getDeviceName() + ", driverName：" + audioDevice.getDriverName() +
+                    ", id：" + audioDevice.getId() + ", type：" + audioDevice.getType() + ", capabilities：" + audioDevice.getCapabilities());
+            if (audioDevice.getType() == AudioDevice.Type.Speaker) {
+                Log.i(TAG, "set output to speaker");
+                p.setOutputAudioDevice(audioDevice);
+                break;
+            }
+        }
+        return p;
+    }
+}
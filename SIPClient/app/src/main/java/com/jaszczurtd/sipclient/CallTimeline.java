@@ -0,0 +1,80 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage times of one outgoing call in ms since the tap on the call button, from the
+ * INVITE through the Call.State transitions to the first decoded video frame.
+ * Only the first time a stage is reached counts.
+ */
+public final class CallTimeline {
+
+    public enum Stage {
+        TAP, OUTGOING_INIT, PROGRESS, RINGING, CONNECTED, STREAMS_RUNNING, FIRST_FRAME
+    }
+
+    static final int NONE = -1;
+
+    final String device;
+    //wall clock of the tap
+    final long startedAt;
+    private final long tapNanos;
+    //ms since the tap, NONE while not reached
+    private final int[] offsets;
+    private boolean failed;
+
+    CallTimeline(String device, long startedAt, long tapNanos) {
+        this.device = device;
+        this.startedAt = startedAt;
+        this.tapNanos = tapNanos;
+        offsets = new int[Stage.values().length];
+        Arrays.fill(offsets, NONE);
+        offsets[Stage.TAP.ordinal()] = 0;
+    }
+
+    //restored from CallTimelineLog's file
+    CallTimeline(String device, long startedAt, int[] offsets, boolean failed) {
+        this.device = device;
+        this.startedAt = startedAt;
+        this.tapNanos = 0;
+        this.offsets = offsets;
+        this.failed = failed;
+    }
+
+    boolean mark(Stage stage, long nanos) {
+        if (offsets[stage.ordinal()] != NONE) {
+            return false;
+        }
+        offsets[stage.ordinal()] = (int) Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos - tapNanos));
+        return true;
+    }
+
+    void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    /** ms since the tap, {@link #NONE} when the stage wasn't reached. */
+    public int get(Stage stage) {
+        return offsets[stage.ordinal()];
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("call to ").append(device);
+        for (Stage s : Stage.values()) {
+            if (s != Stage.TAP && offsets[s.ordinal()] != NONE) {
+                sb.append(", ").append(s).append(" +").append(offsets[s.ordinal()]).append(" ms");
+            }
+        }
+        return sb.append(failed ? ", failed" : "").toString();
+    }
+}
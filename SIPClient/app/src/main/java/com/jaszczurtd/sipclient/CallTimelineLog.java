@@ -0,0 +1,166 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ring buffer of the last {@link #CAPACITY} call timelines and their percentiles per
+ * device, to tell which Pi or network path is slow. At most one call is in progress,
+ * finished ones are kept across restarts through {@link #writeTo}/{@link #readFrom}.
+ */
+public class CallTimelineLog implements Constants {
+
+    static final int CAPACITY = 100;
+    private static final int VERSION = 1;
+    private static final CallTimeline.Stage[] REPORTED = {
+            CallTimeline.Stage.OUTGOING_INIT, CallTimeline.Stage.RINGING, CallTimeline.Stage.CONNECTED,
+            CallTimeline.Stage.STREAMS_RUNNING, CallTimeline.Stage.FIRST_FRAME
+    };
+
+    private final CallTimeline[] ring = new CallTimeline[CAPACITY];
+    private int next;
+    private int size;
+    private CallTimeline current;
+
+    /** A call button was tapped, replaces a call which never finished. */
+    public synchronized void start(String device, long wallClockMs, long nanos) {
+        current = new CallTimeline(device, wallClockMs, nanos);
+    }
+
+    public synchronized void stage(CallTimeline.Stage stage, long nanos) {
+        if (current != null) {
+            current.mark(stage, nanos);
+        }
+    }
+
+    /** Ends the call in progress and returns it, null when there is none. */
+    public synchronized CallTimeline finish(boolean failed) {
+        CallTimeline t = current;
+        if (t == null) {
+            return null;
+        }
+        current = null;
+        t.setFailed(failed);
+        add(t);
+        return t;
+    }
+
+    private void add(CallTimeline t) {
+        ring[next] = t;
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+    }
+
+    /** Finished calls, oldest first. */
+    public synchronized List<CallTimeline> timelines() {
+        List<CallTimeline> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(ring[(next - size + i + CAPACITY) % CAPACITY]);
+        }
+        return list;
+    }
+
+    /** Nearest rank percentile of tap to stage over the device's successful calls, NONE without any. */
+    public synchronized int percentile(String device, CallTimeline.Stage stage, double percentile) {
+        int[] values = values(device, stage);
+        if (values.length == 0) {
+            return CallTimeline.NONE;
+        }
+        int rank = (int) Math.ceil(Math.min(percentile, 100.0) / 100.0 * values.length);
+        return values[Math.max(0, rank - 1)];
+    }
+
+    private int[] values(String device, CallTimeline.Stage stage) {
+        int[] values = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            CallTimeline t = ring[i];
+            if (!t.isFailed() && t.device.equals(device) && t.get(stage) != CallTimeline.NONE) {
+                values[n++] = t.get(stage);
+            }
+        }
+        values = Arrays.copyOf(values, n);
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Plain text report for the diagnostics screen, ms since the tap.
+     * @param devices names of the devices, null shows the SIP users only
+     */
+    public synchronized String report(DeviceRegistry devices) {
+        StringBuilder sb = new StringBuilder("Calls, ms since the tap (p50/p90/max)\n");
+        Set<String> called = new LinkedHashSet<>();
+        for (CallTimeline t : timelines()) {
+            called.add(t.device);
+        }
+        if (called.isEmpty()) {
+            sb.append("  no calls yet\n");
+        }
+        for (String device : called) {
+            int calls = 0, failed = 0;
+            for (int i = 0; i < size; i++) {
+                if (ring[i].device.equals(device)) {
+                    calls++;
+                    failed += ring[i].isFailed() ? 1 : 0;
+                }
+            }
+            sb.append("  ").append(devices != null ? devices.nameOf(device) : device)
+                    .append(" (").append(device).append("): ")
+                    .append(calls).append(" calls, ").append(failed).append(" failed\n");
+            for (CallTimeline.Stage stage : REPORTED) {
+                int[] values = values(device, stage);
+                if (values.length == 0) {
+                    continue;
+                }
+                sb.append(String.format("    %-16s%6d %6d %6d\n", stage,
+                        percentile(device, stage, 50), percentile(device, stage, 90), values[values.length - 1]));
+            }
+        }
+        return sb.toString();
+    }
+
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(VERSION);
+        data.writeInt(CallTimeline.Stage.values().length);
+        List<CallTimeline> list = timelines();
+        data.writeInt(list.size());
+        for (CallTimeline t : list) {
+            data.writeUTF(t.device);
+            data.writeLong(t.startedAt);
+            data.writeBoolean(t.isFailed());
+            for (int offset : t.offsets()) {
+                data.writeInt(offset);
+            }
+        }
+        data.flush();
+    }
+
+    /** Appends the calls of a file written by {@link #writeTo}, an unknown format is skipped. */
+    public synchronized void readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != VERSION || data.readInt() != CallTimeline.Stage.values().length) {
+            return;
+        }
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            String device = data.readUTF();
+            long startedAt = data.readLong();
+            boolean failed = data.readBoolean();
+            int[] offsets = new int[CallTimeline.Stage.values().length];
+            for (int s = 0; s < offsets.length; s++) {
+                offsets[s] = data.readInt();
+            }
+            add(new CallTimeline(device, startedAt, offsets, failed));
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+import org.linphone.core.Address;
+import org.linphone.core.Call;
+import org.linphone.core.CallParams;
+import org.linphone.core.Core;
+import org.linphone.core.CoreListenerStub;
+import org.linphone.core.MediaDirection;
+import org.linphone.core.MediaResourceMode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches several devices at once, one call per device shown in its own tile.
+ * Only the selected tile gets the profile of the network, the audio and the phone
+ * camera, the others receive low resolution video only, see
+ * {@link VideoProfilePolicy#tileProfile}. Tiles which can't be seen, next to an expanded
+ * one or all of them while the Activity is stopped, are put on hold so nothing is sent
+ * or decoded for them. Views live on the UI thread, the calls on the Linphone thread.
+ */
+final class CameraGrid implements Constants {
+
+    static final int MAX_TILES = 4;
+    private static final int COLUMNS = 2;
+    private static final int SELECTED_BORDER = Color.YELLOW;
+    private static final int BORDER = Color.DKGRAY;
+    private static final int LABEL_BACKGROUND = 0x80000000;
+
+    interface GridListener {
+        void onTileSelected(String previous, String device);
+        //the last tile has gone, e.g. all devices hung up
+        void onGridEmpty();
+    }
+
+    //what a tile should look like, made on the UI thread and handed to the Linphone thread
+    private static final class Wanted {
+        final String device;
+        final VideoProfilePolicy.Profile profile;
+        final boolean selected;
+        final boolean visible;
+
+        Wanted(String device, VideoProfilePolicy.Profile profile, boolean selected, boolean visible) {
+            this.device = device;
+            this.profile = profile;
+            this.selected = selected;
+            this.visible = visible;
+        }
+    }
+
+    private static final class TileCall {
+        final Call call;
+        Wanted wanted;
+        //profile and selection of the last offer
+        Wanted applied;
+
+        TileCall(Call call, Wanted wanted) {
+            this.call = call;
+            this.wanted = wanted;
+            this.applied = wanted;
+        }
+    }
+
+    private final ConnectionHolder holder = ConnectionHolder.getInstance();
+
+    //UI thread
+    private final Context context;
+    private final LinearLayout container;
+    private final NetworkMonitor networkMonitor;
+    private final GridListener listener;
+    private final Map<String, FrameLayout> tiles = new LinkedHashMap<>();
+    private String selected;
+    private boolean expanded;
+    private boolean foreground = true;
+    private volatile boolean closed;
+
+    //Linphone thread
+    private final Map<String, TileCall> calls = new HashMap<>();
+    private Core core;
+
+    private final CoreListenerStub tracker = new CoreListenerStub() {
+        @Override
+        public void onCallStateChanged(@NonNull Core core, @NonNull Call call, Call.State state,
+                                       @NonNull String message) {
+            String device = MainActivity.remoteUser(call);
+            TileCall t = calls.get(device);
+            if (t == null || t.call != call) {
+                return;
+            }
+            switch (state) {
+                case StreamsRunning:
+                case Paused:
+                    reconcile(t);
+                    break;
+                case Error:
+                case End:
+                    Log.v(TAG, "grid: call to " + device + " ended, " + message);
+                    calls.remove(device);
+                    container.post(() -> removeTile(device));
+                    break;
+            }
+        }
+    };
+
+    /** @param container vertical layout the tiles are put into, shown while the grid is open */
+    CameraGrid(Context context, LinearLayout container, NetworkMonitor networkMonitor, GridListener listener) {
+        this.context = context;
+        this.container = container;
+        this.networkMonitor = networkMonitor;
+        this.listener = listener;
+    }
+
+    /** Calls the first {@link #MAX_TILES} devices, the first one selected. UI thread. */
+    void open(List<String> devices) {
+        container.removeAllViews();
+        LinearLayout row = null;
+        Map<String, View> windows = new HashMap<>();
+        for (String device : devices) {
+            if (tiles.size() == MAX_TILES) {
+                break;
+            }
+            if (tiles.size() % COLUMNS == 0) {
+                row = new LinearLayout(context);
+                row.setOrientation(LinearLayout.HORIZONTAL);
+                container.addView(row, new LinearLayout.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+            }
+            FrameLayout tile = createTile(device);
+            row.addView(tile, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.MATCH_PARENT, 1));
+            tiles.put(device, tile);
+            windows.put(device, tile.getChildAt(0));
+        }
+        if (tiles.isEmpty()) {
+            return;
+        }
+        selected = tiles.keySet().iterator().next();
+        updateTiles();
+        container.setVisibility(View.VISIBLE);
+        List<Wanted> wanted = wanted();
+        holder.withCore(core -> start(core, wanted, windows));
+    }
+
+    /** Hangs up every tile, the listener isn't called. UI thread. */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tiles.clear();
+        container.removeAllViews();
+        container.setVisibility(View.GONE);
+        holder.runOnLinphoneThread(this::stop);
+    }
+
+    /** Tiles are put on hold while the Activity is stopped. UI thread. */
+    void setForeground(boolean foreground) {
+        this.foreground = foreground;
+        push();
+    }
+
+    /** The network has changed, the tiles get the profiles of the new one. UI thread. */
+    void networkChanged() {
+        push();
+    }
+
+    String getSelected() {
+        return selected;
+    }
+
+    //a tap on the label selects a tile, a second one expands it or brings the grid back
+    private void tileTapped(String device) {
+        if (closed) {
+            return;
+        }
+        if (device.equals(selected)) {
+            expanded = !expanded;
+        } else {
+            String previous = selected;
+            selected = device;
+            expanded = false;
+            listener.onTileSelected(previous, device);
+        }
+        updateTiles();
+        push();
+    }
+
+    private void removeTile(String device) {
+        if (closed) {
+            return;
+        }
+        FrameLayout tile = tiles.remove(device);
+        if (tile == null) {
+            return;
+        }
+        //left in its row so the other surfaces aren't recreated
+        tile.setVisibility(View.GONE);
+        if (tiles.isEmpty()) {
+            listener.onGridEmpty();
+            return;
+        }
+        if (device.equals(selected)) {
+            selected = tiles.keySet().iterator().next();
+            expanded = false;
+            listener.onTileSelected(device, selected);
+        }
+        updateTiles();
+        push();
+    }
+
+    private void updateTiles() {
+        for (Map.Entry<String, FrameLayout> e : tiles.entrySet()) {
+            boolean isSelected = e.getKey().equals(selected);
+            e.getValue().setBackgroundColor(isSelected ? SELECTED_BORDER : BORDER);
+            e.getValue().setVisibility(!expanded || isSelected ? View.VISIBLE : View.GONE);
+        }
+        for (int i = 0; i < container.getChildCount(); i++) {
+            ViewGroup row = (ViewGroup) container.getChildAt(i);
+            int visibility = View.GONE;
+            for (int j = 0; j < row.getChildCount(); j++) {
+                if (row.getChildAt(j).getVisibility() == View.VISIBLE) {
+                    visibility = View.VISIBLE;
+                }
+            }
+            row.setVisibility(visibility);
+        }
+    }
+
+    private List<Wanted> wanted() {
+        int visibleTiles = expanded ? 1 : tiles.size();
+        Transport transport = networkMonitor.getTransport();
+        boolean metered = networkMonitor.isMetered();
+        List<Wanted> wanted = new ArrayList<>();
+        for (String device : tiles.keySet()) {
+            boolean isSelected = device.equals(selected);
+            wanted.add(new Wanted(device,
+                    VideoProfilePolicy.tileProfile(isSelected, visibleTiles, transport, metered),
+                    isSelected, foreground && (!expanded || isSelected)));
+        }
+        return wanted;
+    }
+
+    private void push() {
+        if (closed) {
+            return;
+        }
+        List<Wanted> wanted = wanted();
+        holder.runOnLinphoneThread(() -> {
+            for (Wanted w : wanted) {
+                TileCall t = calls.get(w.device);
+                if (t != null) {
+                    t.wanted = w;
+                    reconcile(t);
+                }
+            }
+        });
+    }
+
+    private FrameLayout createTile(String device) {
+        float density = context.getResources().getDisplayMetrics().density;
+        int border = (int) (2 * density);
+        FrameLayout tile = new FrameLayout(context);
+        tile.setPadding(border, border, border, border);
+
+        ZoomableVideoTextureView video = new ZoomableVideoTextureView(context, null);
+        tile.addView(video, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        TextView label = new TextView(context);
+        DeviceRegistry devices = holder.getDevices();
+        label.setText(devices != null ? devices.nameOf(device) : device);
+        label.setTextColor(Color.WHITE);
+        label.setBackgroundColor(LABEL_BACKGROUND);
+        label.setPadding(border * 4, border * 2, border * 4, border * 2);
+        label.setOnClickListener(v -> tileTapped(device));
+        tile.addView(label, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.TOP | Gravity.START));
+        return tile;
+    }
+
+    //Linphone thread from here on
+
+    private void start(Core core, List<Wanted> wanted, Map<String, View> windows) {
+        CallSetupCache setup = holder.getCallSetup();
+        if (closed || setup == null) {
+            return;
+        }
+        this.core = core;
+        holder.setGridActive(true);
+        //by default a new call puts the running one on hold
+        core.setMediaResourceMode(MediaResourceMode.SharedMediaResources);
+        core.addListener(tracker);
+        for (Wanted w : wanted) {
+            Address address = setup.address(w.device);
+            CallParams params = setup.callParams();
+            if (address == null || params == null) {
+                Log.e(TAG, "grid: invalid device " + w.device);
+                container.post(() -> removeTile(w.device));
+                continue;
+            }
+            //the Core caps go into the SDP of this INVITE only
+            VideoProfileEngine.apply(core, w.profile);
+            configure(params, w.selected);
+            Call call = core.inviteAddressWithParams(address, params);
+            if (call == null) {
+                Log.e(TAG, "grid: call to " + w.device + " not started");
+                container.post(() -> removeTile(w.device));
+                continue;
+            }
+            call.setNativeVideoWindowId(windows.get(w.device));
+            calls.put(w.device, new TileCall(call, w));
+            Log.v(TAG, "grid: calling " + w.device + " with " + w.profile);
+        }
+    }
+
+    private void stop() {
+        if (core == null) {
+            return;
+        }
+        core.removeListener(tracker);
+        for (TileCall t : calls.values()) {
+            t.call.terminate();
+        }
+        calls.clear();
+        core.setMediaResourceMode(MediaResourceMode.ExclusiveMediaResources);
+        holder.setGridActive(false);
+        core = null;
+    }
+
+    //brings the call of a tile to what is wanted, one step per settled state
+    private void reconcile(TileCall t) {
+        Call.State state = t.call.getState();
+        if (!t.wanted.visible) {
+            if (state == Call.State.StreamsRunning) {
+                Log.v(TAG, "grid: holding " + t.wanted.device);
+                t.call.pause();
+            }
+            return;
+        }
+        if (state == Call.State.Paused) {
+            Log.v(TAG, "grid: resuming " + t.wanted.device);
+            t.call.resume();
+            return;
+        }
+        if (state != Call.State.StreamsRunning ||
+                (t.applied.profile == t.wanted.profile && t.applied.selected == t.wanted.selected)) {
+            return;
+        }
+        CallParams params = core.createCallParams(t.call);
+        if (params == null) {
+            return;
+        }
+        Log.v(TAG, "grid: " + t.wanted.device + " to " + t.wanted.profile + (t.wanted.selected ? ", selected" : ""));
+        VideoProfileEngine.apply(core, t.wanted.profile);
+        configure(params, t.wanted.selected);
+        t.call.update(params);
+        t.applied = t.wanted;
+    }
+
+    //only the selected tile talks and sends the phone camera, the rest just receive video
+    private static void configure(CallParams params, boolean selected) {
+        params.setAudioDirection(selected ? MediaDirection.SendRecv : MediaDirection.Inactive);
+        params.setVideoDirection(selected ? MediaDirection.SendRecv : MediaDirection.RecvOnly);
+    }
+}
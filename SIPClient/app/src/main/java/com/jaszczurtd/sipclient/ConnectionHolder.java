@@ -0,0 +1,778 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.linphone.core.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Process wide owner of the MQTT client and the Linphone Core. Both outlive the
+ * Activity, which only attaches its listeners while it exists, so reopening the app
+ * from recents finds MQTT connected and SIP registered instead of starting over.
+ * When nothing is attached for {@link #PARK_DELAY_MS} the connections are parked:
+ * MQTT reconnects with a long keepalive and Linphone goes to background mode.
+ * Keepalives of both follow the network in use, see {@link KeepAlivePolicy}.
+ * A switch of the default network reconnects both right away.
+ * All methods are meant to be called on the main thread. The Core lives on its own
+ * "Linphone" thread and iterates on its Looper, so it is only touched through
+ * {@link #withCore(CoreTask)} and its listeners are called on that thread.
+ */
+public class ConnectionHolder implements Constants {
+
+    static final long PARK_DELAY_MS = 2 * 60 * 1000;
+    private static final String CALL_TIMELINES_FILE = "call_timelines.bin";
+    private static final String CALL_QUALITY_DIR = "call_quality";
+    private static final String RECORDINGS_DIR = "recordings";
+    static final long RECORDINGS_MAX_BYTES = 512L * 1024 * 1024;
+    static final long RECORDINGS_MAX_AGE_MS = 14L * 24 * 60 * 60 * 1000;
+
+    private static ConnectionHolder instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable parkTask = this::park;
+    private final Runnable keepAliveProbeTask = this::mqttStable;
+    //the new keepalive is stored already, only the reconnect which negotiates it is left
+    private final Runnable keepAliveReconnectTask = () -> {
+        if (mqttClient != null) {
+            mqttClient.reconnect();
+        }
+    };
+    private final KeepAlivePolicy keepAlivePolicy = new KeepAlivePolicy();
+    private NetworkMonitor networkMonitor;
+    //when the current MQTT connection came up, 0 while disconnected
+    private long mqttConnectedAt;
+
+    private MQTTClient mqttClient;
+    private String mqttConfig;
+    private Handler linphoneHandler;
+    //Linphone thread only
+    private Core linphoneCore;
+    private String sipConfig;
+    private CoreListener linphoneListener;
+    private CallSetupCache callSetup;
+    private VideoProfileEngine videoProfiles;
+    private CallQualityRecorder callQuality;
+    private CallRecorder callRecorder;
+    private boolean gridActive;
+    private volatile boolean recordingEnabled;
+    private RecordingStore recordings;
+    private volatile DeviceRegistry devices;
+    private File callTimelinesFile;
+    private final CallTimelineLog callTimelines = new CallTimelineLog();
+    private volatile RegistrationState registrationState = RegistrationState.None;
+
+    private volatile MQTTClient.MQTTStatusListener mqttListener;
+    private volatile boolean parked;
+
+    /** Work for the running Core, see {@link #withCore(CoreTask)}. */
+    public interface CoreTask {
+        void run(@NonNull Core core);
+    }
+
+    public interface LinphoneReadyListener {
+        /** The Core is started, called on the main thread. */
+        void onLinphoneReady();
+        void onLinphoneFailed(Exception e);
+    }
+
+    public static synchronized ConnectionHolder getInstance() {
+        if (instance == null) {
+            instance = new ConnectionHolder();
+        }
+        return instance;
+    }
+
+    private ConnectionHolder() {
+    }
+
+    //forwards to whichever Activity is attached at the moment
+    private final MQTTClient.MQTTStatusListener mqttForwarder = new MQTTClient.MQTTStatusListener() {
+        @Override
+        public void onConnected() {
+            handler.post(ConnectionHolder.this::mqttConnected);
+            MQTTClient.MQTTStatusListener l = mqttListener;
+            if (l != null) {
+                l.onConnected();
+            }
+        }
+
+        @Override
+        public void onProgress() {
+            MQTTClient.MQTTStatusListener l = mqttListener;
+            if (l != null) {
+                l.onProgress();
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            handler.post(ConnectionHolder.this::mqttLost);
+            MQTTClient.MQTTStatusListener l = mqttListener;
+            if (l != null) {
+                l.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onConnectionFailed(String reason) {
+            MQTTClient.MQTTStatusListener l = mqttListener;
+            if (l != null) {
+                l.onConnectionFailed(reason);
+            }
+        }
+    };
+
+    private final CoreListenerStub coreTracker = new CoreListenerStub() {
+        @Override
+        public void onRegistrationStateChanged(@NonNull Core core, @NonNull ProxyConfig proxyConfig,
+                                               RegistrationState state, @NonNull String message) {
+            registrationState = state;
+            if (state == RegistrationState.Ok) {
+                StartupTrace.mark(StartupTrace.Mark.SIP_REGISTERED);
+            }
+        }
+
+        @Override
+        public void onCallStateChanged(@NonNull Core core, @NonNull Call call, Call.State state,
+                                       @NonNull String message) {
+            long now = System.nanoTime();
+            switch (state) {
+                case OutgoingInit:
+                    callTimelines.stage(CallTimeline.Stage.OUTGOING_INIT, now);
+                    break;
+                case OutgoingProgress:
+                    callTimelines.stage(CallTimeline.Stage.PROGRESS, now);
+                    break;
+                case OutgoingRinging:
+                    callTimelines.stage(CallTimeline.Stage.RINGING, now);
+                    break;
+                case Connected:
+                    callTimelines.stage(CallTimeline.Stage.CONNECTED, now);
+                    break;
+                case StreamsRunning:
+                    callTimelines.stage(CallTimeline.Stage.STREAMS_RUNNING, now);
+                    //grid tiles have their own profiles and aren't recorded
+                    if (gridActive) {
+                        break;
+                    }
+                    if (videoProfiles != null) {
+                        videoProfiles.streamsRunning(call);
+                    }
+                    if (callQuality != null) {
+                        callQuality.streamsRunning(call, networkMonitor != null ? networkMonitor.getTransport() : null);
+                    }
+                    if (callRecorder != null && recordingEnabled) {
+                        callRecorder.streamsRunning(call);
+                    }
+                    break;
+                case Error:
+                case End:
+                case Released:
+                    if (videoProfiles != null) {
+                        videoProfiles.callEnded();
+                    }
+                    if (callQuality != null) {
+                        callQuality.callEnded();
+                    }
+                    if (callRecorder != null) {
+                        callRecorder.callEnded();
+                    }
+                    CallTimeline t = callTimelines.finish(state == Call.State.Error);
+                    if (t != null) {
+                        Log.v(TAG, t.toString());
+                        saveCallTimelines();
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void onAudioDevicesListUpdated(@NonNull Core core) {
+            if (callSetup != null) {
+                callSetup.audioDevicesChanged();
+            }
+        }
+    };
+
+    /**
+     * Attaches the UI. The current MQTT state is reported to the listener right away,
+     * the SIP state can be read with {@link #getRegistrationState()}.
+     */
+    public void attach(MQTTClient.MQTTStatusListener mqttStatusListener, CoreListener coreListener) {
+        handler.removeCallbacks(parkTask);
+        unpark();
+
+        mqttListener = mqttStatusListener;
+        runOnLinphoneThread(() -> {
+            if (linphoneListener != null && linphoneCore != null) {
+                linphoneCore.removeListener(linphoneListener);
+            }
+            linphoneListener = coreListener;
+            if (linphoneCore != null && coreListener != null) {
+                linphoneCore.addListener(coreListener);
+            }
+        });
+
+        if (mqttClient != null && mqttStatusListener != null) {
+            if (mqttClient.isConnected()) {
+                mqttStatusListener.onConnected();
+            } else {
+                mqttStatusListener.onProgress();
+            }
+        }
+    }
+
+    /** Detaches the UI, connections stay up and get parked after a while. */
+    public void detach() {
+        mqttListener = null;
+        runOnLinphoneThread(() -> {
+            if (linphoneCore != null) {
+                if (linphoneListener != null) {
+                    linphoneCore.removeListener(linphoneListener);
+                }
+                //nothing is left to show the video, so don't leave a call running
+                linphoneCore.terminateAllCalls();
+                linphoneCore.setNativeVideoWindowId(null);
+            }
+            linphoneListener = null;
+        });
+        handler.removeCallbacks(parkTask);
+        handler.postDelayed(parkTask, PARK_DELAY_MS);
+    }
+
+    /**
+     * Returns the running MQTT client, a new one is created only when there is none yet
+     * or the connection settings have changed.
+     */
+    public MQTTClient startMQTT(Context context, String broker, String user, String pass, boolean mqtt5) {
+        String config = broker + "|" + user + "|" + pass + "|" + mqtt5;
+        if (mqttClient != null && config.equals(mqttConfig)) {
+            Log.v(TAG, "MQTT client reused");
+            return mqttClient;
+        }
+        stopMQTT();
+        startNetworkMonitor(context);
+        mqttConfig = config;
+        mqttClient = new MQTTClient(context.getApplicationContext(), broker, user, pass, mqtt5, mqttForwarder);
+        //still before the first connect, which runs on the client's executor
+        mqttClient.setKeepAliveInterval(keepAlivePolicy.getMQTTKeepAlive());
+        return mqttClient;
+    }
+
+    public MQTTClient getMQTTClient() {
+        return mqttClient;
+    }
+
+    public void stopMQTT() {
+        if (mqttClient != null) {
+            Log.v(TAG, "destroy MQTT client");
+            mqttClient.stop();
+            mqttClient = null;
+            mqttConfig = null;
+            mqttConnectedAt = 0;
+            handler.removeCallbacks(keepAliveProbeTask);
+        }
+    }
+
+    /**
+     * Starts the Linphone Core on the Linphone thread and reports back through ready.
+     * A new Core is created, configured and started only when there is none yet or
+     * the SIP account has changed.
+     */
+    public void startLinphone(Context context, String sipUser, String sipPassword, String sipDomain,
+                              LinphoneReadyListener ready) {
+        String config = sipUser + "|" + sipPassword + "|" + sipDomain;
+        Context appContext = context.getApplicationContext();
+        startNetworkMonitor(context);
+        if (callTimelinesFile == null) {
+            callTimelinesFile = new File(appContext.getFilesDir(), CALL_TIMELINES_FILE);
+            runOnLinphoneThread(this::loadCallTimelines);
+        }
+        int keepAliveMs = keepAlivePolicy.getSIPKeepAlive() * 1000;
+        boolean reachable = networkMonitor.isConnected();
+        runOnLinphoneThread(() -> {
+            try {
+                if (linphoneCore != null && config.equals(sipConfig)) {
+                    Log.v(TAG, "linphone core reused");
+                } else {
+                    stopCore();
+                    createCore(appContext, config, sipUser, sipPassword, sipDomain, keepAliveMs, reachable);
+                }
+                if (ready != null) {
+                    handler.post(ready::onLinphoneReady);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "linphone error:" + e);
+                if (ready != null) {
+                    handler.post(() -> ready.onLinphoneFailed(e));
+                }
+            }
+        });
+    }
+
+    private void createCore(Context context, String config, String sipUser, String sipPassword,
+                            String sipDomain, int keepAliveMs, boolean reachable) {
+        Core core;
+        Trace.beginSection("Linphone createCore");
+        try {
+            Config c = Factory.instance().createConfig(null);
+            c.setInt("sip", "inc_timeout", 600);
+            c.setInt("sip", "keepalive_period", keepAliveMs);
+
+            core = Factory.instance().createCoreWithConfig(c, context);
+        } finally {
+            Trace.endSection();
+        }
+
+        Trace.beginSection("Linphone configure");
+        try {
+            core.setVideoDisplayEnabled(true);
+            core.setVideoCaptureEnabled(true);
+            core.setVideoDevice("Camera");
+
+            core.setNortpTimeout(600);
+            core.setUploadBandwidth(0);
+            core.setDownloadBandwidth(0);
+            core.setForcedIceRelayEnabled(false);
+            core.setAdaptiveRateControlEnabled(true);
+            core.setKeepAliveEnabled(true);
+
+            for (PayloadType pt : core.getVideoPayloadTypes()) {
+                if ("H264".equals(pt.getMimeType())) {
+                    pt.enable(true);
+                }
+            }
+
+            core.addListener(coreTracker);
+            if (linphoneListener != null) {
+                core.addListener(linphoneListener);
+            }
+
+            AuthInfo user = Factory.instance().createAuthInfo(sipUser, null, sipPassword, null, null, sipDomain, null);
+            AccountParams accountParams = core.createAccountParams();
+            String sipAddress = "sip:" + sipUser + "@" + sipDomain;
+            Address identity = Factory.instance().createAddress(sipAddress);
+            if(identity != null) {
+                Log.v(TAG, "login for address " + sipAddress);
+                accountParams.setIdentityAddress(identity);
+                Address address = Factory.instance().createAddress("sip:" + sipDomain);
+                if(address != null) {
+                    address.setTransport(TransportType.Udp);
+                    accountParams.setServerAddress(address);
+                    accountParams.setRegisterEnabled(true);
+                }
+                Account account = core.createAccount(accountParams);
+                core.addAuthInfo(user);
+                core.addAccount(account);
+                core.setDefaultAccount(account);
+                core.setForcedIceRelayEnabled(true);
+
+            } else {
+                Log.e(TAG, "cannot set identity for linphone:" + sipAddress);
+            }
+            core.setUserAgent(TAG, "1.0");
+        } finally {
+            Trace.endSection();
+        }
+
+        linphoneCore = core;
+        sipConfig = config;
+        registrationState = RegistrationState.None;
+        Trace.beginSection("Linphone start");
+        try {
+            core.start();
+        } finally {
+            Trace.endSection();
+        }
+        StartupTrace.mark(StartupTrace.Mark.CORE_STARTED);
+        //from here on reachability is driven by NetworkMonitor, which knows about the VPN
+        core.setNetworkReachable(reachable);
+        if (parked) {
+            core.enterBackground();
+        }
+        callSetup = new CallSetupCache(core, sipDomain);
+        videoProfiles = new VideoProfileEngine(linphoneHandler());
+        callQuality = new CallQualityRecorder(linphoneHandler(), callQualityDir(context));
+        callRecorder = new CallRecorder(getRecordings(context));
+        //after the ready callback, so it doesn't delay it
+        linphoneHandler().post(() -> {
+            if (linphoneCore == core) {
+                callSetup.prepare(devices);
+            }
+        });
+    }
+
+    /** The running Core or null, Linphone thread only. */
+    public Core getLinphoneCore() {
+        return linphoneCore;
+    }
+
+    /** A call button was tapped, starts the timeline of the call. */
+    public void callStarted(String device) {
+        callTimelines.start(device, System.currentTimeMillis(), System.nanoTime());
+    }
+
+    /** First video frame of the call shown. */
+    public void firstVideoFrame() {
+        callTimelines.stage(CallTimeline.Stage.FIRST_FRAME, System.nanoTime());
+    }
+
+    /** Devices to call, null until the first Activity has set the built-in ones. */
+    public DeviceRegistry getDevices() {
+        return devices;
+    }
+
+    /** A new device list, the running Core prepares the addresses of new devices. */
+    public void setDevices(DeviceRegistry registry) {
+        devices = registry;
+        runOnLinphoneThread(() -> {
+            if (callSetup != null) {
+                callSetup.prepareAddresses(registry);
+            }
+        });
+    }
+
+    public CallTimelineLog getCallTimelines() {
+        return callTimelines;
+    }
+
+    //Linphone thread
+    private void loadCallTimelines() {
+        if (!callTimelinesFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(callTimelinesFile)) {
+            callTimelines.readFrom(in);
+        } catch (IOException e) {
+            Log.e(TAG, "call timelines read error:" + e);
+        }
+    }
+
+    //Linphone thread, a few kB once per call
+    private void saveCallTimelines() {
+        try (OutputStream out = new FileOutputStream(callTimelinesFile)) {
+            callTimelines.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "call timelines write error:" + e);
+        }
+    }
+
+    /** Where the call quality files are recorded. */
+    static File callQualityDir(Context context) {
+        return new File(context.getFilesDir(), CALL_QUALITY_DIR);
+    }
+
+    /**
+     * Recorded calls, the index is read on the first use, so not on the UI thread.
+     * Shared by the recorder and the recordings screen.
+     */
+    synchronized RecordingStore getRecordings(Context context) {
+        if (recordings == null) {
+            recordings = new RecordingStore(new File(context.getFilesDir(), RECORDINGS_DIR),
+                    RECORDINGS_MAX_BYTES, RECORDINGS_MAX_AGE_MS);
+            try {
+                recordings.load();
+                //recordings past their age go even if nothing is recorded anymore
+                if (recordings.evict(System.currentTimeMillis()) > 0) {
+                    recordings.save();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "recordings index read error:" + e);
+            }
+        }
+        return recordings;
+    }
+
+    /** Records the next calls or stops recording the running one. */
+    public void setRecordingEnabled(boolean enabled) {
+        recordingEnabled = enabled;
+        if (!enabled) {
+            runOnLinphoneThread(() -> {
+                if (callRecorder != null) {
+                    callRecorder.callEnded();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets the video profile of the network in use and, when recording, the record file into
+     * params, right before the INVITE to user. Linphone thread only.
+     */
+    void prepareCall(Core core, CallParams params, String user) {
+        if (videoProfiles != null && networkMonitor != null) {
+            videoProfiles.callStarting(core, networkMonitor.getTransport(), networkMonitor.isMetered());
+        }
+        if (callRecorder != null && recordingEnabled) {
+            callRecorder.callStarting(params, user);
+        }
+    }
+
+    /** A {@link CameraGrid} holds the calls, Linphone thread only. */
+    void setGridActive(boolean active) {
+        gridActive = active;
+        if (active && videoProfiles != null) {
+            videoProfiles.callEnded();
+        }
+    }
+
+    /** Prepared call setup of the running Core or null, Linphone thread only. */
+    CallSetupCache getCallSetup() {
+        return callSetup;
+    }
+
+    /** Runs task on the Linphone thread with the running Core, nothing happens without one. */
+    public void withCore(CoreTask task) {
+        runOnLinphoneThread(() -> {
+            Core core = linphoneCore;
+            if (core == null) {
+                return;
+            }
+            try {
+                task.run(core);
+            } catch (Exception e) {
+                Log.e(TAG, "linphone error:" + e);
+            }
+        });
+    }
+
+    private synchronized Handler linphoneHandler() {
+        if (linphoneHandler == null) {
+            HandlerThread thread = new HandlerThread("Linphone");
+            thread.start();
+            linphoneHandler = new Handler(thread.getLooper());
+        }
+        return linphoneHandler;
+    }
+
+    /** Runs task on the Linphone thread, right away when called there. */
+    public void runOnLinphoneThread(Runnable task) {
+        Handler h = linphoneHandler();
+        if (Looper.myLooper() == h.getLooper()) {
+            task.run();
+        } else {
+            h.post(task);
+        }
+    }
+
+    public RegistrationState getRegistrationState() {
+        return registrationState;
+    }
+
+    public void stopLinphone() {
+        runOnLinphoneThread(this::stopCore);
+    }
+
+    private void stopCore() {
+        try {
+            if (linphoneCore != null) {
+                Core core = linphoneCore;
+                linphoneCore = null;
+                callSetup = null;
+                if (videoProfiles != null) {
+                    videoProfiles.callEnded();
+                    videoProfiles = null;
+                }
+                if (callQuality != null) {
+                    callQuality.callEnded();
+                    callQuality = null;
+                }
+                if (callRecorder != null) {
+                    callRecorder.callEnded();
+                    callRecorder = null;
+                }
+                sipConfig = null;
+                core.terminateAllCalls();
+                Account account = core.getDefaultAccount();
+                if(account != null) {
+                    AccountParams accountParams = account.getParams().clone();
+                    accountParams.setRegisterEnabled(false);
+                    account.setParams(accountParams);
+                }
+                core.removeListener(coreTracker);
+                if (linphoneListener != null) {
+                    core.removeListener(linphoneListener);
+                }
+                core.stop();
+                registrationState = RegistrationState.None;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "linphone error:" + e);
+        }
+    }
+
+    private void park() {
+        if (parked) {
+            return;
+        }
+        parked = true;
+        Log.v(TAG, "no UI attached, parking connections");
+        keepAlivePolicy.setParked(true);
+        //keepalive is negotiated on connect, one reconnect saves a radio wake-up every minute
+        applyKeepAlive(true);
+        withCore(Core::enterBackground);
+    }
+
+    private void unpark() {
+        if (!parked) {
+            return;
+        }
+        parked = false;
+        Log.v(TAG, "UI attached, connections back to foreground");
+        keepAlivePolicy.setParked(false);
+        //no forced reconnect here, the open connection shows live state right away;
+        //the short keepalive is used from the next connect on
+        applyKeepAlive(false);
+        withCore(Core::enterForeground);
+    }
+
+    /**
+     * Lets the parked MQTT keepalive grow until the NAT timeout of the network is found,
+     * see {@link KeepAlivePolicy}.
+     */
+    public void setKeepAliveProbing(boolean probing) {
+        keepAlivePolicy.setProbing(probing);
+        if (!probing) {
+            handler.removeCallbacks(keepAliveProbeTask);
+        }
+    }
+
+    public KeepAlivePolicy getKeepAlivePolicy() {
+        return keepAlivePolicy;
+    }
+
+    private void startNetworkMonitor(Context context) {
+        if (networkMonitor != null) {
+            return;
+        }
+        networkMonitor = new NetworkMonitor(context.getApplicationContext(), new NetworkMonitor.NetworkStatusListener() {
+            @Override
+            public void onConnected() {
+                networkChanged();
+            }
+
+            @Override
+            public void onDisconnected() {
+                withCore(core -> core.setNetworkReachable(false));
+            }
+
+            @Override
+            public void onNetworkChanged() {
+                networkChanged();
+            }
+
+            @Override
+            public void onTransportChanged(Transport transport, boolean metered) {
+                transportChanged(transport, metered);
+            }
+        });
+        networkMonitor.startMonitoring();
+        keepAlivePolicy.networkChanged(networkMonitor.getTransport(), networkMonitor.isMetered(),
+                SystemClock.elapsedRealtime());
+    }
+
+    private void transportChanged(Transport transport, boolean metered) {
+        if (keepAlivePolicy.networkChanged(transport, metered, SystemClock.elapsedRealtime())) {
+            //a network switch reported right after reconnects anyway, otherwise reconnect for the keepalive
+            if (applyKeepAlive(false)) {
+                handler.post(keepAliveReconnectTask);
+            }
+        }
+        runOnLinphoneThread(() -> {
+            if (videoProfiles != null) {
+                videoProfiles.networkChanged(transport, metered);
+            }
+        });
+    }
+
+    /**
+     * Sockets of both connections are bound to the old network, waiting for keepalives to
+     * notice costs up to a few minutes. MQTT reconnects right away and Linphone recreates
+     * its transports and registers again when it becomes reachable.
+     */
+    private void networkChanged() {
+        handler.removeCallbacks(keepAliveReconnectTask);
+        Log.v(TAG, "network changed, reconnecting MQTT and SIP");
+        if (mqttClient != null) {
+            mqttClient.networkChanged();
+        }
+        withCore(core -> {
+            core.setNetworkReachable(false);
+            core.setNetworkReachable(true);
+            if (callSetup != null) {
+                callSetup.warmUpNat();
+            }
+        });
+    }
+
+    /**
+     * MQTT negotiates the keepalive on connect, so a new one needs a reconnect to apply.
+     * @return whether the MQTT keepalive has changed
+     */
+    private boolean applyKeepAlive(boolean reconnect) {
+        boolean changed = false;
+        if (mqttClient != null) {
+            int seconds = keepAlivePolicy.getMQTTKeepAlive();
+            if (seconds != mqttClient.getKeepAliveInterval()) {
+                Log.v(TAG, "MQTT keepalive " + seconds + " s");
+                mqttClient.setKeepAliveInterval(seconds);
+                changed = true;
+                if (reconnect) {
+                    mqttClient.reconnect();
+                }
+            }
+        }
+        int ms = keepAlivePolicy.getSIPKeepAlive() * 1000;
+        withCore(core -> {
+            Config c = core.getConfig();
+            if (c.getInt("sip", "keepalive_period", 0) != ms) {
+                Log.v(TAG, "SIP keepalive " + ms + " ms");
+                c.setInt("sip", "keepalive_period", ms);
+                //restarts the keepalive timer
+                core.setKeepAliveEnabled(false);
+                core.setKeepAliveEnabled(true);
+            }
+        });
+        return changed;
+    }
+
+    private void mqttConnected() {
+        StartupTrace.mark(StartupTrace.Mark.MQTT_CONNECTED);
+        mqttConnectedAt = SystemClock.elapsedRealtime();
+        handler.removeCallbacks(keepAliveProbeTask);
+        if (keepAlivePolicy.isProbing()) {
+            handler.postDelayed(keepAliveProbeTask, keepAlivePolicy.getStableCheckDelayMs());
+        }
+    }
+
+    private void mqttLost() {
+        handler.removeCallbacks(keepAliveProbeTask);
+        long now = SystemClock.elapsedRealtime();
+        if (mqttConnectedAt > 0 && keepAlivePolicy.mqttLost(now - mqttConnectedAt, now)) {
+            Log.v(TAG, "MQTT loss looks like a NAT timeout");
+            //the reconnect loop is running already and takes the shorter keepalive
+            applyKeepAlive(false);
+        }
+        mqttConnectedAt = 0;
+    }
+
+    private void mqttStable() {
+        if (mqttClient != null && mqttClient.isConnected() && keepAlivePolicy.mqttStable()) {
+            applyKeepAlive(true);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.jaszczurtd.sipclient;
 
 public interface Constants {
     String TAG = "SIPClientDebug";
+    //built-in devices, see DeviceRegistry
     String HOME_USER = "pi5";
     String GARAGE_USER = "pi3";
     String KITCHEN_USER = "pi5-kuchnia";
@@ -9,15 +10,28 @@ public interface Constants {
     String MQTT_USER = "mqtt_user";
     String MQTT_PASS = "mqtt_pass";
     String MQTT_BROKER_IP = "mqtt_broker_ip";
+    String MQTT_CLIENT_ID = "mqtt_client_id";
+    String MQTT_V5 = "mqtt_v5";
+    String KEEPALIVE_PROBING = "keepalive_probing";
+    String LAZY_SIP = "lazy_sip";
+    String RECORD_CALLS = "record_calls";
     String SIP_USER = "sip_user";
     String SIP_PASS = "sip_pass";
     String SIP_DOMAIN = "sip_domain";
     String MQTT_LIGHTS_TOPIC = "gpio/17";
     String MQTT_BELL_TOPIC = "gpio/27";
+    //any live message brings SIP up in lazy mode
+    String MQTT_DOORBELL_TOPIC = "doorbell";
+    //retained device list, see DeviceRegistry
+    String MQTT_DEVICES_TOPIC = "devices";
     String MQTT_ON = "on";
     String MQTT_OFF = "off";
 
     enum Connection {
         CONN_NONE, CONN_PROGRESS, CONN_OK
     }
+
+    enum Transport {
+        NONE, WIFI, ETHERNET, CELLULAR, OTHER
+    }
 }
@@ -0,0 +1,138 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Intercom devices the app can call, with the MQTT switches each of them controls.
+ * Published by the broker as the retained {@link #MQTT_DEVICES_TOPIC}, one device per line:
+ * <pre>
+ * # sip user;name;topic=label[:auto],...
+ * pi3;Garaż;gpio/17=Światło:auto,gpio/27=Dzwonek
+ * </pre>
+ * An auto switch is turned on for the time of a call to its device. Immutable, so it can
+ * be handed between threads as it is; devices are looked up by SIP user ignoring case.
+ */
+public final class DeviceRegistry implements Constants {
+
+    public static final class Control {
+        public final String topic;
+        public final String label;
+        //switched on while the device is in a call
+        public final boolean auto;
+
+        Control(String topic, String label, boolean auto) {
+            this.topic = topic;
+            this.label = label;
+            this.auto = auto;
+        }
+    }
+
+    public static final class Device {
+        public final String sipUser;
+        public final String name;
+        public final List<Control> controls;
+
+        Device(String sipUser, String name, List<Control> controls) {
+            this.sipUser = sipUser;
+            this.name = name;
+            this.controls = Collections.unmodifiableList(controls);
+        }
+    }
+
+    private final List<Device> devices;
+    private final Map<String, Device> bySipUser = new HashMap<>();
+    //the payload it was parsed from, to spot redeliveries of the same config
+    private final String source;
+
+    private DeviceRegistry(List<Device> devices, String source) {
+        this.devices = Collections.unmodifiableList(devices);
+        this.source = source;
+        for (Device d : devices) {
+            bySipUser.put(key(d.sipUser), d);
+        }
+    }
+
+    private static String key(String sipUser) {
+        return sipUser.toLowerCase(Locale.ROOT);
+    }
+
+    /** The devices this app was built with, used until the broker publishes its own. */
+    static DeviceRegistry builtIn(String home, String garage, String kitchen, String lights, String bell) {
+        return parse(HOME_USER + ";" + home + "\n" +
+                GARAGE_USER + ";" + garage + ";" + MQTT_LIGHTS_TOPIC + "=" + lights + ":auto," +
+                MQTT_BELL_TOPIC + "=" + bell + "\n" +
+                KITCHEN_USER + ";" + kitchen + "\n");
+    }
+
+    /**
+     * Parses a published config. Broken lines and repeated SIP users are skipped,
+     * null is returned when no device is left, so a bad publish keeps the old registry.
+     */
+    static DeviceRegistry parse(String config) {
+        List<Device> devices = new ArrayList<>();
+        Map<String, Boolean> seen = new HashMap<>();
+        for (String raw : config.split("\n")) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(";", -1);
+            String sipUser = fields[0].trim();
+            if (sipUser.isEmpty() || seen.put(key(sipUser), true) != null) {
+                continue;
+            }
+            String name = fields.length > 1 && !fields[1].trim().isEmpty() ? fields[1].trim() : sipUser;
+            List<Control> controls = new ArrayList<>();
+            if (fields.length > 2) {
+                for (String c : fields[2].split(",")) {
+                    Control control = parseControl(c.trim());
+                    if (control != null) {
+                        controls.add(control);
+                    }
+                }
+            }
+            devices.add(new Device(sipUser, name, controls));
+        }
+        return devices.isEmpty() ? null : new DeviceRegistry(devices, config);
+    }
+
+    private static Control parseControl(String s) {
+        int eq = s.indexOf('=');
+        String topic = (eq < 0 ? s : s.substring(0, eq)).trim();
+        if (topic.isEmpty()) {
+            return null;
+        }
+        String label = eq < 0 ? topic : s.substring(eq + 1).trim();
+        boolean auto = false;
+        if (label.endsWith(":auto")) {
+            auto = true;
+            label = label.substring(0, label.length() - ":auto".length()).trim();
+        }
+        return new Control(topic, label.isEmpty() ? topic : label, auto);
+    }
+
+    /** The device with this SIP user or null. */
+    public Device get(String sipUser) {
+        return sipUser != null ? bySipUser.get(key(sipUser)) : null;
+    }
+
+    /** In the published order. */
+    public List<Device> devices() {
+        return devices;
+    }
+
+    /** Name of the device or the SIP user itself when it isn't known. */
+    public String nameOf(String sipUser) {
+        Device d = get(sipUser);
+        return d != null ? d.name : sipUser;
+    }
+
+    boolean sameSource(String config) {
+        return source.equals(config);
+    }
+}
@@ -0,0 +1,111 @@
+package com.jaszczurtd.sipclient;
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hidden screen (long press on the settings button) with the live MQTT metrics and
+ * the startup and call timings, refreshed every second. The recorded call quality can
+ * be exported from here as CSV and JSON.
+ */
+public class DiagnosticsActivity extends AppCompatActivity implements Constants {
+
+    private static final long REFRESH_MS = 1000;
+    private static final String CALL_QUALITY_EXPORT_DIR = "call_quality";
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private TextView report;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            ConnectionHolder holder = ConnectionHolder.getInstance();
+            MQTTClient client = holder.getMQTTClient();
+            report.setText((client != null ? client.getMetrics().report() : "MQTT client not running") +
+                    "\n\n" + StartupTrace.report() +
+                    "\n" + holder.getCallTimelines().report(holder.getDevices()));
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setTitle(getString(R.string.diagnostics));
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, padding);
+
+        Button reset = new Button(this);
+        reset.setText(getString(R.string.reset_metrics));
+        reset.setOnClickListener(v -> {
+            MQTTClient client = ConnectionHolder.getInstance().getMQTTClient();
+            if (client != null) {
+                client.getMetrics().reset();
+            }
+        });
+        layout.addView(reset);
+
+        Button export = new Button(this);
+        export.setText(getString(R.string.export_call_quality));
+        export.setOnClickListener(v -> exportCallQuality());
+        layout.addView(export);
+
+        report = new TextView(this);
+        report.setTypeface(Typeface.MONOSPACE);
+        report.setTextIsSelectable(true);
+        layout.addView(report);
+
+        ScrollView scroll = new ScrollView(this);
+        scroll.addView(layout);
+        setContentView(scroll);
+    }
+
+    //to Android/data/<package>/files/call_quality, reachable over USB without root
+    private void exportCallQuality() {
+        File source = ConnectionHolder.callQualityDir(this);
+        File target = getExternalFilesDir(CALL_QUALITY_EXPORT_DIR);
+        new Thread(() -> {
+            String result;
+            try {
+                if (target == null) {
+                    throw new IOException("no external storage");
+                }
+                int calls = CallQualityRecorder.export(source, target);
+                result = getString(R.string.call_quality_exported, calls, target.getPath());
+            } catch (IOException e) {
+                Log.e(TAG, "call quality export error:" + e);
+                result = getString(R.string.call_quality_export_error) + e.getMessage();
+            }
+            String message = result;
+            runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_LONG).show());
+        }, "CallQualityExport").start();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refresh);
+        super.onPause();
+    }
+}
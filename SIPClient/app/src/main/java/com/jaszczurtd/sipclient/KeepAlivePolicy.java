@@ -0,0 +1,187 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MQTT and SIP keepalive intervals for the network in use. Every keepalive wakes the
+ * radio, so the intervals are as long as the NAT in the path allows: a home router
+ * keeps idle bindings for long, a carrier NAT may drop idle TCP after ~5 minutes and
+ * UDP after ~30 seconds.
+ * With probing on, the parked MQTT keepalive of the current network is doubled after
+ * every {@link #PROBE_STABLE_INTERVALS} quiet intervals, until the connection drops
+ * without a network change. That is taken as the NAT timeout and the last interval
+ * which survived is kept for this network from then on.
+ * Not thread safe, {@link ConnectionHolder} uses it on the main thread.
+ */
+public class KeepAlivePolicy implements Constants {
+
+    static final int PROBE_STABLE_INTERVALS = 3;
+    //losses this soon after a network change are the change, not the NAT
+    static final long NETWORK_SETTLE_MS = 30 * 1000;
+    static final int MIN_MQTT_KEEPALIVE_S = 30;
+    static final int MAX_MQTT_KEEPALIVE_S = 30 * 60;
+
+    private static final class Probe {
+        int current;
+        int good;
+        //shortest interval seen failing, 0 while unknown
+        int ceiling;
+    }
+
+    private Transport transport = Transport.NONE;
+    private boolean metered;
+    private boolean parked;
+    private boolean probing;
+    private long lastNetworkChange;
+    private final Map<String, Probe> probes = new HashMap<>();
+
+    /** MQTT keepalive while the UI is shown, in seconds. */
+    static int activeMQTTKeepAlive(Transport transport, boolean metered) {
+        switch (transport) {
+            case WIFI:
+            case ETHERNET:
+                return metered ? 120 : MQTTClient.DEFAULT_KEEPALIVE_S;
+            case CELLULAR:
+                return 120;
+            default:
+                return MQTTClient.DEFAULT_KEEPALIVE_S;
+        }
+    }
+
+    /** MQTT keepalive without UI, in seconds. */
+    static int parkedMQTTKeepAlive(Transport transport, boolean metered) {
+        if ((transport == Transport.WIFI || transport == Transport.ETHERNET) && !metered) {
+            return 15 * 60;
+        }
+        //metered Wi-Fi is usually a phone hotspot, so a carrier NAT again
+        return 270;
+    }
+
+    /** SIP (UDP) keepalive in seconds. */
+    static int sipKeepAlive(Transport transport, boolean metered) {
+        if ((transport == Transport.WIFI || transport == Transport.ETHERNET) && !metered) {
+            //home routers keep answered UDP flows for 120 s or more
+            return 90;
+        }
+        return 30;
+    }
+
+    /** @return true when the keepalives changed */
+    public boolean networkChanged(Transport transport, boolean metered, long nowMs) {
+        lastNetworkChange = nowMs;
+        if (transport == this.transport && metered == this.metered) {
+            return false;
+        }
+        int mqtt = getMQTTKeepAlive(), sip = getSIPKeepAlive();
+        this.transport = transport;
+        this.metered = metered;
+        return mqtt != getMQTTKeepAlive() || sip != getSIPKeepAlive();
+    }
+
+    /** @return true when the MQTT keepalive changed */
+    public boolean setParked(boolean parked) {
+        int mqtt = getMQTTKeepAlive();
+        this.parked = parked;
+        return mqtt != getMQTTKeepAlive();
+    }
+
+    public void setProbing(boolean probing) {
+        this.probing = probing;
+    }
+
+    public boolean isProbing() {
+        return probing;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public boolean isMetered() {
+        return metered;
+    }
+
+    public int getMQTTKeepAlive() {
+        if (!parked) {
+            return activeMQTTKeepAlive(transport, metered);
+        }
+        Probe p = probes.get(key());
+        if (p != null) {
+            if (probing) {
+                return p.current;
+            }
+            if (p.ceiling > 0) {
+                //a NAT timeout found earlier still holds with probing off
+                return p.good > 0 ? p.good : p.current;
+            }
+        }
+        return parkedMQTTKeepAlive(transport, metered);
+    }
+
+    public int getSIPKeepAlive() {
+        return sipKeepAlive(transport, metered);
+    }
+
+    /** How long the MQTT connection has to stay up before {@link #mqttStable()}. */
+    public long getStableCheckDelayMs() {
+        return getMQTTKeepAlive() * 1000L * PROBE_STABLE_INTERVALS;
+    }
+
+    /**
+     * The MQTT connection survived {@link #PROBE_STABLE_INTERVALS} keepalives.
+     * @return true when the keepalive was raised
+     */
+    public boolean mqttStable() {
+        if (!probing || !parked) {
+            return false;
+        }
+        Probe p = probe();
+        p.good = Math.max(p.good, p.current);
+        int next = Math.min(p.current * 2, MAX_MQTT_KEEPALIVE_S);
+        if (p.ceiling > 0) {
+            next = Math.min(next, (p.good + p.ceiling) / 2);
+        }
+        if (next <= p.current) {
+            return false;
+        }
+        p.current = next;
+        return true;
+    }
+
+    /**
+     * The MQTT connection was lost after being up for upMs.
+     * @return true when the loss looked like a NAT timeout and the keepalive was lowered
+     */
+    public boolean mqttLost(long upMs, long nowMs) {
+        if (!probing || !parked || nowMs - lastNetworkChange < NETWORK_SETTLE_MS) {
+            return false;
+        }
+        Probe p = probe();
+        //too short lived to have sat idle for a whole keepalive
+        if (upMs < p.current * 1000L) {
+            return false;
+        }
+        p.ceiling = p.ceiling > 0 ? Math.min(p.ceiling, p.current) : p.current;
+        if (p.good >= p.ceiling) {
+            //it survived before, the NAT got stricter since
+            p.good = 0;
+        }
+        p.current = p.good > 0 ? p.good : Math.max(MIN_MQTT_KEEPALIVE_S, p.ceiling / 2);
+        return true;
+    }
+
+    private Probe probe() {
+        Probe p = probes.get(key());
+        if (p == null) {
+            p = new Probe();
+            p.current = parkedMQTTKeepAlive(transport, metered);
+            probes.put(key(), p);
+        }
+        return p;
+    }
+
+    private String key() {
+        return transport + (metered ? "/metered" : "");
+    }
+}
@@ -1,34 +1,42 @@
 package com.jaszczurtd.sipclient;
 
 import static org.eclipse.paho.client.mqttv3.MqttException.REASON_CODE_CLIENT_CONNECTED;
+import static org.eclipse.paho.client.mqttv3.MqttException.REASON_CODE_CONNECT_IN_PROGRESS;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
+import android.content.SharedPreferences;
 import android.util.Log;
 
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
-import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
-import java.io.InputStream;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
-
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
-
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Non-blocking MQTT client. All network operations go through Paho's async client
+ * (MQTT 3.1.1 or MQTT 5, see {@link MQTTTransport}) and return immediately; results
+ * are reported through the listener interfaces on Paho's callback thread.
+ * Preparing the connection (TLS material etc.) happens on a dedicated I/O executor,
+ * so no method of this class blocks the UI thread.
+ */
 public class MQTTClient implements Constants {
-    private MqttClient client;
+    private volatile MQTTTransport client;
+    private volatile boolean stopped;
+    private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "MQTTClient-io");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final MQTTClient.MQTTStatusListener connectionCallback;
-    private final IMqttMessageListener MQTTlistener;
+    private final MQTTTopicRouter router = new MQTTTopicRouter();
 
     public interface MQTTStatusListener {
         void onConnected();
@@ -39,52 +47,109 @@ public class MQTTClient implements Constants {
 
     public interface MQTTMessageDelivered {
         void onMessageDelivered();
+        default void onDeliveryTimeout() { }
+        default void onDeliveryFailed(String reason) { }
     }
 
-    private MQTTMessageDelivered dc;
+    //upper bound handed to Paho, the real window is kept by inFlightWindow
+    private static final int MAX_INFLIGHT_LIMIT = 100;
+    public static final int DEFAULT_MAX_INFLIGHT = 10;
+    public static final long DEFAULT_DELIVERY_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_QOS = 2;
+    public static final long DEFAULT_COALESCE_WINDOW_MS = 250;
+    public static final int DEFAULT_KEEPALIVE_S = 60;
+
+    private final MQTTInFlightWindow inFlightWindow;
+    private final MQTTPublishCoalescer coalescer;
+    private final Map<String, Integer> topicQos = new ConcurrentHashMap<>();
+    private final MQTTReconnectScheduler reconnectScheduler;
+    private final MQTTOutbox outbox;
+    private final MQTTRetainedStateCache retainedCache;
+    private final MQTTSubscriptionManager subscriptions;
+    private final MQTTMetrics metrics = new MQTTMetrics();
+    //touched only on ioExecutor
+    private boolean outboxReplayed;
     private final String username;
     private final String password;
+    private volatile int keepAliveSeconds = DEFAULT_KEEPALIVE_S;
 
-    //this method requires x509 certificate (ca.crt) in res/raw
-    private SSLSocketFactory getSocketFactory(Context context) throws Exception {
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        InputStream caInput = context.getResources().openRawResource(R.raw.ca);
-        Certificate ca;
-        try {
-            ca = cf.generateCertificate(caInput);
-        } finally {
-            caInput.close();
-        }
-
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keyStore.load(null, null);
-        keyStore.setCertificateEntry("ca", ca);
-
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(keyStore);
-
-        SSLContext contextTLS = SSLContext.getInstance("TLS");
-        contextTLS.init(null, tmf.getTrustManagers(), null);
-
-        return contextTLS.getSocketFactory();
+    public MQTTClient(Context context, String broker, String username, String password,
+                      MQTTStatusListener connectionListener) {
+        this(context, broker, username, password, false, connectionListener);
     }
+
+    /** @param mqtt5 use MQTT 5 (session expiry, receive maximum, topic aliases) instead of 3.1.1 */
     public MQTTClient(Context context, String broker, String username, String password,
-                      IMqttMessageListener listener, MQTTStatusListener connectionListener) {
+                      boolean mqtt5, MQTTStatusListener connectionListener) {
 
         connectionCallback = connectionListener;
-        MQTTlistener = listener;
         this.username = username;
         this.password = password;
+        inFlightWindow = new MQTTInFlightWindow(ioExecutor, this::send,
+                DEFAULT_MAX_INFLIGHT, DEFAULT_DELIVERY_TIMEOUT_MS, metrics);
+        coalescer = new MQTTPublishCoalescer(ioExecutor, this::publishNow, DEFAULT_COALESCE_WINDOW_MS);
+        reconnectScheduler = new MQTTReconnectScheduler(ioExecutor, attempt -> {
+            if (connectionCallback != null) {
+                connectionCallback.onProgress();
+            }
+            connect(true);
+        }, MQTTReconnectScheduler.DEFAULT_MIN_DELAY_MS, MQTTReconnectScheduler.DEFAULT_MAX_DELAY_MS);
+
+        //loaded before connecting, so the last known state is available immediately
+        retainedCache = new MQTTRetainedStateCache(context.getApplicationContext());
+        subscriptions = new MQTTSubscriptionManager(context.getApplicationContext(),
+                new MQTTSubscriptionManager.Transport() {
+                    @Override
+                    public boolean isConnected() {
+                        return MQTTClient.this.isConnected();
+                    }
+
+                    @Override
+                    public void subscribe(String[] filters, int[] qos, MQTTTransport.Result result) throws MqttException {
+                        transport().subscribe(filters, qos, result);
+                    }
+
+                    @Override
+                    public void unsubscribe(String[] filters, MQTTTransport.Result result) throws MqttException {
+                        transport().unsubscribe(filters, result);
+                    }
+                });
+        File dir = new File(context.getApplicationContext().getFilesDir(), "mqtt");
+        outbox = new MQTTOutbox(new File(dir, "outbox.log"));
+        //persistence files are opened by the client constructor, keep it off the caller's thread
+        execute(() -> create(context.getApplicationContext(), broker, dir, mqtt5));
+        connect();
+    }
 
+    /**
+     * The client id has to survive restarts, otherwise the broker can't match the
+     * persistent session (cleanSession false) nor the in-flight messages kept on disk.
+     */
+    static String getClientId(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(MQTT_CREDENTIALS, Context.MODE_PRIVATE);
+        String clientId = prefs.getString(MQTT_CLIENT_ID, null);
+        if (clientId == null || clientId.isEmpty()) {
+            clientId = TAG + System.currentTimeMillis();
+            prefs.edit().putString(MQTT_CLIENT_ID, clientId).apply();
+        }
+        return clientId;
+    }
+
+    private void create(Context context, String broker, File dir, boolean mqtt5) {
         try {
-            String clientId = TAG + System.currentTimeMillis();
-            Log.v(TAG, "clientID:" + clientId);
+            String clientId = getClientId(context);
+            Log.v(TAG, "clientID:" + clientId + (mqtt5 ? " (MQTT 5)" : ""));
 
-            client = new MqttClient("ssl://" + broker + ":8883", clientId, null);
-            client.setCallback(new MqttCallbackExtended() {
+            String serverURI = "ssl://" + broker + ":8883";
+            MQTTTransport c = mqtt5 ? new MQTTTransportV5(serverURI, clientId, dir) :
+                    new MQTTTransportV3(serverURI, clientId, dir);
+            c.setListener(new MQTTTransport.Listener() {
                 @Override
                 public void connectComplete(boolean reconnect, String serverURI) {
                     Log.v(TAG, "MQTT connected: " + serverURI + (reconnect ? " (again)" : ""));
+                    metrics.connectComplete();
+                    reconnectScheduler.attemptFinished(true);
+                    execute(MQTTClient.this::replayOutbox);
                     if(connectionCallback != null) {
                         connectionCallback.onConnected();
                     }
@@ -92,7 +157,15 @@ public class MQTTClient implements Constants {
 
                 @Override
                 public void connectionLost(Throwable cause) {
-                    startConnectionWatcher();
+                    metrics.connectionLost();
+                    reconnectScheduler.start();
+                    execute(() -> {
+                        outboxReplayed = false;
+                        int withdrawn = inFlightWindow.withdrawReplays();
+                        if (withdrawn > 0) {
+                            Log.v(TAG, "MQTT outbox replays back to the outbox: " + withdrawn);
+                        }
+                    });
                     Log.v(TAG, "MQTT connection lost: " + cause);
                     if(connectionCallback != null) {
                         connectionCallback.onDisconnected();
@@ -102,69 +175,89 @@ public class MQTTClient implements Constants {
                 @Override
                 public void messageArrived(String topic, MqttMessage message) {
                     Log.v(TAG, "MQTT message has been received: " + topic + " -> " + new String(message.getPayload()));
+                    metrics.messageReceived(topic);
+                    retainedCache.update(topic, message.getPayload(), message.isRetained());
+                    if (router.dispatch(topic, message) == 0) {
+                        Log.v(TAG, "MQTT no handler for: " + topic);
+                    }
                 }
 
                 @Override
-                public void deliveryComplete(IMqttDeliveryToken token) {
-                    String message = "none/error";
-                    try {
-                        message = token.getResponse().toString();
-                    } catch (Exception e) {
-                        Log.e(TAG, "error getting message from token:" + e.getMessage());
-                    }
-                    Log.v(TAG, "MQTT message has been delivered: " + message);
-                    if(dc != null) {
-                        dc.onMessageDelivered();
-                        dc = null;
+                public void deliveryComplete(Object token, Object userContext) {
+                    if (userContext instanceof MQTTInFlightWindow.Pending) {
+                        Log.v(TAG, "MQTT message has been delivered: " + ((MQTTInFlightWindow.Pending) userContext).topic);
                     }
+                    inFlightWindow.delivered(token, userContext);
                 }
             });
-            connect();
+            client = c;
 
         } catch (Exception e) {
             Log.e(TAG, "Error MQTT client create: " + e);
         }
     }
 
-    public void subscribeTo(String topic) {
-        if (MQTTlistener == null) {
-            Log.e(TAG, "Error: subscribeTo -> MQTTlistener is null");
-            return;
-        }
+    /**
+     * Registers a handler for messages matching the filter ('+' and '#' wildcards allowed).
+     * Handlers are called on Paho's callback thread. Registering doesn't subscribe.
+     */
+    public void addTopicHandler(String filter, IMqttMessageListener handler) {
+        router.add(filter, handler);
+    }
 
-        if (isConnected()) {
-            try {
-                unsubscribeFrom(topic);
-                Log.v(TAG, "subscribe to: " + topic);
-                client.subscribe(topic, MQTTlistener);
+    public void removeTopicHandler(String filter, IMqttMessageListener handler) {
+        router.remove(filter, handler);
+    }
 
-            } catch (MqttException e) {
-                String reason = e.getReasonCode() + " - " + e;
-                Log.e(TAG, "Error MQTT subscription: " + reason);
-            }
-        } else {
-            Log.e(TAG, "Error MQTT subscription: disconnected");
+    /**
+     * Last known value of a retained topic, possibly from a previous run (stale)
+     * if the broker hasn't delivered it yet. Null if it was never received.
+     */
+    public MqttMessage getLastKnownValue(String topic) {
+        MQTTRetainedStateCache.Value v = retainedCache.get(topic);
+        if (v == null) {
+            return null;
         }
+        MqttMessage message = new MqttMessage(v.payload);
+        message.setRetained(true);
+        return message;
     }
 
-    public void unsubscribeFrom(String topic) {
-        if (isConnected()) {
-            try {
-                client.unsubscribe(topic);
-            } catch (MqttException e) {
-                String reason = e.getReasonCode() + " - " + e;
-                Log.e(TAG, "Error MQTT unsubscription: " + reason);
-            }
-        } else {
-            Log.e(TAG, "Error MQTT unsubscribeFrom: disconnected");
-        }
+    public boolean isLastKnownValueStale(String topic) {
+        MQTTRetainedStateCache.Value v = retainedCache.get(topic);
+        return v == null || v.stale;
+    }
+
+    public long getLastKnownValueTime(String topic) {
+        MQTTRetainedStateCache.Value v = retainedCache.get(topic);
+        return v != null ? v.timestamp : 0;
+    }
+
+    /**
+     * Adds the filter to the wanted subscriptions. It is sent to the broker now if
+     * connected, otherwise with the next connect, batched with the other filters.
+     */
+    public void subscribeTo(String filter) {
+        subscribeTo(filter, DEFAULT_QOS);
+    }
+
+    public void subscribeTo(String filter, int qos) {
+        subscriptions.add(filter, qos);
+    }
+
+    public void unsubscribeFrom(String filter) {
+        subscriptions.remove(filter);
     }
 
     void disconnect() {
+        disconnect(null);
+    }
+
+    void disconnect(MQTTTransport.Result callback) {
         if (isConnected()) {
             try {
                 Log.v(TAG, "MQTT: disconnect from client");
-                client.disconnect();
+                client.disconnect(MQTTTransport.DEFAULT_QUIESCE_MS, callback);
             } catch (Exception e) {
                 Log.e(TAG, "Error MQTT client disconnect: " + e);
             }
@@ -172,70 +265,326 @@ public class MQTTClient implements Constants {
     }
 
     void connect() {
-        try {
-            MqttConnectOptions options = new MqttConnectOptions();
-            options.setUserName(username);
-            options.setPassword(password.toCharArray());
-            options.setAutomaticReconnect(true);
-            options.setCleanSession(false);
+        connect(false);
+    }
 
+    private void connect(boolean reconnecting) {
+        execute(() -> {
+            if (client == null || stopped) {
+                return;
+            }
             try {
-                options.setSocketFactory(getSocketFactory(ContextProvider.getContext()));
-            } catch (Exception e) {
-                Log.e(TAG, "SSL problem: " + e);
+                MqttConnectOptions options = new MqttConnectOptions();
+                options.setUserName(username);
+                options.setPassword(password.toCharArray());
+                //reconnects are driven by reconnectScheduler
+                options.setAutomaticReconnect(false);
+                options.setCleanSession(false);
+                options.setMaxInflight(MAX_INFLIGHT_LIMIT);
+                options.setKeepAliveInterval(keepAliveSeconds);
+
+                try {
+                    options.setSocketFactory(MQTTSocketFactory.get(ContextProvider.getContext()));
+                } catch (Exception e) {
+                    Log.e(TAG, "SSL problem: " + e);
+                }
+
+                final long started = System.nanoTime();
+                client.connect(options, new MQTTTransport.Result() {
+                    @Override
+                    public void onSuccess(boolean sessionPresent, int[] grantedQos) {
+                        metrics.connected(System.nanoTime() - started);
+                        Log.v(TAG, "MQTT connect request completed, session present:" + sessionPresent);
+                        subscriptions.connected(sessionPresent);
+                        if (reconnecting) {
+                            reconnectScheduler.attemptFinished(true);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Object token, MqttException exception) {
+                        connectionFailed(exception, reconnecting);
+                    }
+                });
+            } catch (MqttException e) {
+                connectionFailed(e, reconnecting);
             }
+        });
+    }
 
-            client.connect(options);
-        } catch (MqttException e) {
-            if(e.getReasonCode() != REASON_CODE_CLIENT_CONNECTED) {
-                String reason = e.getReasonCode() + " - " + e;
-                Log.e(TAG, "Error MQTT connection: " + reason);
-                if (connectionCallback != null) {
-                    connectionCallback.onConnectionFailed(reason);
-                }
+    private void connectionFailed(MqttException e, boolean reconnecting) {
+        if (e.getReasonCode() != REASON_CODE_CLIENT_CONNECTED &&
+                e.getReasonCode() != REASON_CODE_CONNECT_IN_PROGRESS) {
+            metrics.connectFailed();
+        }
+        if (reconnecting) {
+            boolean connected = e.getReasonCode() == REASON_CODE_CLIENT_CONNECTED;
+            if (!connected) {
+                Log.v(TAG, "MQTT reconnect attempt failed: " + e.getReasonCode() + " - " + e);
+            }
+            reconnectScheduler.attemptFinished(connected);
+            return;
+        }
+        if(e.getReasonCode() != REASON_CODE_CLIENT_CONNECTED &&
+                e.getReasonCode() != REASON_CODE_CONNECT_IN_PROGRESS) {
+            String reason = e.getReasonCode() + " - " + e;
+            Log.e(TAG, "Error MQTT connection: " + reason);
+            if (connectionCallback != null) {
+                connectionCallback.onConnectionFailed(reason);
             }
         }
     }
 
+    /**
+     * Drops the current connection and connects again through the reconnect loop,
+     * e.g. to apply a new keepalive. The session and subscriptions are kept.
+     */
+    public void reconnect() {
+        reconnect(MQTTTransport.DEFAULT_QUIESCE_MS, false);
+    }
+
+    /**
+     * The default network changed, so the connection most likely sits on a socket of a
+     * network which is gone and would only be noticed after 1.5 keepalives. It is dropped
+     * without waiting for in-flight work (QoS 1/2 stays in the session) and the first
+     * attempt is made right away with the backoff reset.
+     */
+    public void networkChanged() {
+        reconnect(0, true);
+    }
+
+    private void reconnect(long quiesceMs, boolean immediately) {
+        execute(() -> {
+            MQTTTransport c = client;
+            if (c == null || stopped) {
+                return;
+            }
+            outboxReplayed = false;
+            Runnable restart = immediately ? reconnectScheduler::startNow : reconnectScheduler::start;
+            if (!c.isConnected()) {
+                restart.run();
+                return;
+            }
+            Log.v(TAG, "MQTT forced reconnect");
+            try {
+                c.disconnect(quiesceMs, new MQTTTransport.Result() {
+                    @Override
+                    public void onSuccess(boolean sessionPresent, int[] grantedQos) {
+                        restart.run();
+                    }
+
+                    @Override
+                    public void onFailure(Object token, MqttException exception) {
+                        Log.e(TAG, "Error MQTT client disconnect: " + exception);
+                        restart.run();
+                    }
+                });
+            } catch (MqttException e) {
+                Log.e(TAG, "Error MQTT client disconnect: " + e);
+                restart.run();
+            }
+        });
+    }
+
     void stop() {
-        if (isConnected()) {
+        stopped = true;
+        reconnectScheduler.cancel();
+        coalescer.clear("client stopped");
+        inFlightWindow.clear("client stopped");
+        execute(() -> {
+            final MQTTTransport c = client;
+            client = null;
+            outbox.close();
+            if (c == null) {
+                return;
+            }
             try {
-                client.disconnect();
-                client.close();
+                if (c.isConnected()) {
+                    c.disconnect(MQTTTransport.DEFAULT_QUIESCE_MS, new MQTTTransport.Result() {
+                        @Override
+                        public void onSuccess(boolean sessionPresent, int[] grantedQos) {
+                            c.close();
+                        }
+
+                        @Override
+                        public void onFailure(Object token, MqttException exception) {
+                            Log.e(TAG, "Error MQTT client stop: " + exception);
+                            c.close();
+                        }
+                    });
+                } else {
+                    c.close();
+                }
             } catch (Exception e) {
                 Log.e(TAG, "Error MQTT client stop: " + e);
             }
+        });
+        ioExecutor.shutdown();
+    }
+
+    private void execute(Runnable task) {
+        try {
+            ioExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.v(TAG, "MQTT client already stopped");
         }
     }
 
+    private MQTTTransport transport() throws MqttException {
+        MQTTTransport c = client;
+        if (c == null) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+        }
+        return c;
+    }
+
+    /**
+     * Retained values are coalesced per topic: within the coalescing window only the
+     * newest value for a topic is sent, as the broker would keep just that one anyway.
+     */
     public void publish(String topic, String payload, boolean retained, MQTTMessageDelivered deliveryCallback) {
-        if (isConnected()) {
-            try {
-                dc = deliveryCallback;
-                MqttMessage message = new MqttMessage(payload.getBytes());
-                message.setQos(2);
-                message.setRetained(retained);
-                client.publish(topic, message);
-            } catch (MqttException e) {
-                Log.e(TAG, "Error MQTT publish: " + e);
+        if (stopped) {
+            if (deliveryCallback != null) {
+                deliveryCallback.onDeliveryFailed("client stopped");
             }
+            return;
+        }
+        if (retained) {
+            coalescer.publish(topic, payload, true, deliveryCallback);
         } else {
-            Log.e(TAG, "Error MQTT publish: disconnected");
+            publishNow(topic, payload, false, deliveryCallback);
         }
     }
 
-    public boolean isConnected() {
-        return client != null && client.isConnected();
+    private void publishNow(String topic, String payload, boolean retained, MQTTMessageDelivered deliveryCallback) {
+        if (stopped) {
+            if (deliveryCallback != null) {
+                deliveryCallback.onDeliveryFailed("client stopped");
+            }
+            return;
+        }
+        //everything goes through ioExecutor, so live publishes can't overtake the outbox replay
+        execute(() -> {
+            int qos = getTopicQos(topic);
+            if (isConnected() && outboxReplayed) {
+                MqttMessage message = MQTTPayloads.message(payload, qos, retained);
+                inFlightWindow.submit(new MQTTInFlightWindow.Pending(topic, message, deliveryCallback));
+            } else if (qos > 0) {
+                Log.v(TAG, "MQTT offline, queue publish to: " + topic);
+                if (!outbox.add(topic, MQTTPayloads.encode(payload), qos, retained, deliveryCallback) && deliveryCallback != null) {
+                    deliveryCallback.onDeliveryFailed("outbox problem");
+                }
+            } else {
+                Log.e(TAG, "Error MQTT publish: disconnected");
+                if (deliveryCallback != null) {
+                    deliveryCallback.onDeliveryFailed("disconnected");
+                }
+            }
+        });
     }
 
-    private void startConnectionWatcher() {
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            if (!isConnected()) {
-                if(connectionCallback != null) {
-                    connectionCallback.onProgress();
+    //runs on ioExecutor after every successful connect
+    private void replayOutbox() {
+        if (!isConnected()) {
+            return;
+        }
+        for (MQTTOutbox.Entry e : outbox.entries()) {
+            MqttMessage message = new MqttMessage(e.payload);
+            message.setQos(e.qos);
+            message.setRetained(e.retained);
+            MQTTInFlightWindow.Pending pending = new MQTTInFlightWindow.Pending(e.topic, message, e.callback);
+            //once Paho accepted it, the message sits in Paho's own persistence
+            pending.onSent = () -> outbox.remove(e);
+            inFlightWindow.submit(pending);
+        }
+        outboxReplayed = true;
+    }
+
+    private Object send(MQTTInFlightWindow.Pending pending) throws MqttException {
+        MQTTTransport c = transport();
+        if (!c.isConnected() && pending.message.getQos() > 0) {
+            //a replay is still in the outbox, the next connect replays it again
+            if (pending.onSent != null) {
+                return null;
+            }
+            //connection dropped while it was waiting for a slot, park it for the next connect
+            if (outbox.add(pending.topic, pending.message.getPayload(), pending.message.getQos(),
+                    pending.message.isRetained(), pending.callback)) {
+                return null;
+            }
+        }
+        return c.publish(pending.topic, pending.message, pending, new MQTTTransport.Result() {
+            @Override
+            public void onSuccess(boolean sessionPresent, int[] grantedQos) {
+                //completion is reported through deliveryComplete()
+            }
+
+            @Override
+            public void onFailure(Object token, MqttException exception) {
+                //Paho keeps a QoS 1/2 message of a lost connection and sends it again after the
+                //reconnect, deliveryComplete() still follows, so it stays pending until then or its timeout
+                if (pending.message.getQos() > 0 && keptForReconnect(exception)) {
+                    Log.v(TAG, "MQTT publish waits for the reconnect: " + pending.topic);
+                    return;
                 }
-                startConnectionWatcher();
+                Log.e(TAG, "Error MQTT publish: " + exception);
+                inFlightWindow.failed(token, pending, String.valueOf(exception));
             }
-        }, 1000);
+        });
+    }
+
+    //the connection went away under an accepted publish, dropped or closed by us for a reconnect
+    private static boolean keptForReconnect(MqttException e) {
+        return e.getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST ||
+                e.getReasonCode() == MqttException.REASON_CODE_CLIENT_DISCONNECTING;
+    }
+
+    /**
+     * QoS used for publishes to the given topic, e.g. 1 for idempotent retained
+     * on/off states where a duplicate does no harm and QoS 2 would cost an extra round trip.
+     */
+    public void setTopicQos(String topic, int qos) {
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("invalid QoS: " + qos);
+        }
+        topicQos.put(topic, qos);
+    }
+
+    public int getTopicQos(String topic) {
+        Integer qos = topicQos.get(topic);
+        return qos != null ? qos : DEFAULT_QOS;
+    }
+
+    /** Coalescing window for retained publishes, 0 sends every value. */
+    public void setCoalesceWindow(long ms) {
+        coalescer.setWindow(ms);
+    }
+
+    /** How many QoS 1/2 publishes may wait for their acknowledgement at the same time. */
+    public void setMaxInflight(int max) {
+        inFlightWindow.setMaxInflight(Math.min(max, MAX_INFLIGHT_LIMIT));
+    }
+
+    /** Time after which a not acknowledged publish reports onDeliveryTimeout(), 0 disables it. */
+    public void setDeliveryTimeout(long ms) {
+        inFlightWindow.setTimeout(ms);
+    }
+
+    /** Latency histograms and counters of this client, see {@link MQTTMetrics#report()}. */
+    public MQTTMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Keepalive in seconds, used from the next connect on (see {@link #reconnect()}). */
+    public void setKeepAliveInterval(int seconds) {
+        keepAliveSeconds = seconds;
+    }
+
+    public int getKeepAliveInterval() {
+        return keepAliveSeconds;
+    }
+
+    public boolean isConnected() {
+        return client != null && client.isConnected();
     }
 }
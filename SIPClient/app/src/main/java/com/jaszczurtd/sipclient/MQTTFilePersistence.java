@@ -0,0 +1,110 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Paho persistence (QoS 1/2 messages in flight) on top of {@link MQTTMessageLog},
+ * one log file per client id and server.
+ */
+class MQTTFilePersistence implements MqttClientPersistence {
+
+    private final File dir;
+    private MQTTMessageLog log;
+
+    MQTTFilePersistence(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void open(String clientId, String serverURI) throws MqttPersistenceException {
+        String name = (clientId + "-" + serverURI).replaceAll("[^a-zA-Z0-9_.-]", "_");
+        log = new MQTTMessageLog(new File(dir, name + ".log"));
+        try {
+            log.open();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Override
+    public void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkOpen();
+        //header and payload are stored back to back, like MqttDefaultFilePersistence does
+        int headerLength = persistable.getHeaderLength();
+        int payloadLength = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+        byte[] data = new byte[headerLength + payloadLength];
+        System.arraycopy(persistable.getHeaderBytes(), persistable.getHeaderOffset(), data, 0, headerLength);
+        if (payloadLength > 0) {
+            System.arraycopy(persistable.getPayloadBytes(), persistable.getPayloadOffset(), data, headerLength, payloadLength);
+        }
+        try {
+            log.put(key, data);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public MqttPersistable get(String key) throws MqttPersistenceException {
+        checkOpen();
+        byte[] data = log.get(key);
+        if (data == null) {
+            return null;
+        }
+        return new MqttPersistentData(key, data, 0, data.length, null, 0, 0);
+    }
+
+    @Override
+    public void remove(String key) throws MqttPersistenceException {
+        checkOpen();
+        try {
+            log.remove(key);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public Enumeration<String> keys() throws MqttPersistenceException {
+        checkOpen();
+        return Collections.enumeration(log.keys());
+    }
+
+    @Override
+    public void clear() throws MqttPersistenceException {
+        checkOpen();
+        try {
+            log.clear();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) throws MqttPersistenceException {
+        checkOpen();
+        return log.contains(key);
+    }
+
+    private void checkOpen() throws MqttPersistenceException {
+        if (log == null) {
+            throw new MqttPersistenceException(MqttException.REASON_CODE_CLIENT_CLOSED);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.client.MqttClientException;
+import org.eclipse.paho.mqttv5.client.internal.MqttPersistentData;
+import org.eclipse.paho.mqttv5.common.MqttPersistable;
+import org.eclipse.paho.mqttv5.common.MqttPersistenceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Same as {@link MQTTFilePersistence} for the MQTT 5 client, in its own file since
+ * the stored packets aren't compatible between protocol versions.
+ */
+class MQTTFilePersistenceV5 implements MqttClientPersistence {
+
+    private final File dir;
+    private MQTTMessageLog log;
+
+    MQTTFilePersistenceV5(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void open(String clientId) throws MqttPersistenceException {
+        String name = (clientId + "-v5").replaceAll("[^a-zA-Z0-9_.-]", "_");
+        log = new MQTTMessageLog(new File(dir, name + ".log"));
+        try {
+            log.open();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Override
+    public void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkOpen();
+        int headerLength = persistable.getHeaderLength();
+        int payloadLength = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+        byte[] data = new byte[headerLength + payloadLength];
+        System.arraycopy(persistable.getHeaderBytes(), persistable.getHeaderOffset(), data, 0, headerLength);
+        if (payloadLength > 0) {
+            System.arraycopy(persistable.getPayloadBytes(), persistable.getPayloadOffset(), data, headerLength, payloadLength);
+        }
+        try {
+            log.put(key, data);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public MqttPersistable get(String key) throws MqttPersistenceException {
+        checkOpen();
+        byte[] data = log.get(key);
+        if (data == null) {
+            return null;
+        }
+        return new MqttPersistentData(key, data, 0, data.length, null, 0, 0);
+    }
+
+    @Override
+    public void remove(String key) throws MqttPersistenceException {
+        checkOpen();
+        try {
+            log.remove(key);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public Enumeration<String> keys() throws MqttPersistenceException {
+        checkOpen();
+        return Collections.enumeration(log.keys());
+    }
+
+    @Override
+    public void clear() throws MqttPersistenceException {
+        checkOpen();
+        try {
+            log.clear();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) throws MqttPersistenceException {
+        checkOpen();
+        return log.contains(key);
+    }
+
+    private void checkOpen() throws MqttPersistenceException {
+        if (log == null) {
+            throw new MqttPersistenceException(MqttClientException.REASON_CODE_CLIENT_CLOSED);
+        }
+    }
+}
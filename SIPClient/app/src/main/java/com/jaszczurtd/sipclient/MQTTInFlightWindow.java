@@ -0,0 +1,265 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table of publishes which were handed to the broker but not yet acknowledged,
+ * keyed by their delivery token. Up to {@link #getMaxInflight()} publishes are
+ * sent at once, the rest wait in FIFO order and go out as soon as a slot frees up.
+ * Every publish keeps its own delivery callback and its own timeout. Publishes are
+ * only sent on the thread of the scheduler, so the queue goes out in order whichever
+ * thread reports a completion.
+ */
+class MQTTInFlightWindow implements Constants {
+
+    interface Sender {
+        /** @return delivery token, or null when the message was parked elsewhere together with its callback */
+        Object send(Pending pending) throws MqttException;
+    }
+
+    static final class Pending {
+        final String topic;
+        final MqttMessage message;
+        final MQTTClient.MQTTMessageDelivered callback;
+        Object token;
+        //called once the client accepted the message, set for outbox replays only
+        Runnable onSent;
+        long sentNanos;
+        ScheduledFuture<?> timeout;
+        boolean finished;
+
+        Pending(String topic, MqttMessage message, MQTTClient.MQTTMessageDelivered callback) {
+            this.topic = topic;
+            this.message = message;
+            this.callback = callback;
+        }
+    }
+
+    private final Map<Object, Pending> inFlight = new HashMap<>();
+    private final ArrayDeque<Pending> waiting = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler;
+    private final Sender sender;
+    private int maxInflight;
+    private long timeoutMs;
+    private final MQTTMetrics metrics;
+
+    MQTTInFlightWindow(ScheduledExecutorService scheduler, Sender sender, int maxInflight, long timeoutMs,
+                       MQTTMetrics metrics) {
+        this.scheduler = scheduler;
+        this.sender = sender;
+        this.metrics = metrics;
+        this.maxInflight = Math.max(1, maxInflight);
+        this.timeoutMs = timeoutMs;
+    }
+
+    synchronized int getMaxInflight() {
+        return maxInflight;
+    }
+
+    void setMaxInflight(int max) {
+        synchronized (this) {
+            maxInflight = Math.max(1, max);
+        }
+        drainLater();
+    }
+
+    synchronized void setTimeout(long ms) {
+        timeoutMs = ms;
+    }
+
+    synchronized int inFlightCount() {
+        return inFlight.size();
+    }
+
+    synchronized int waitingCount() {
+        return waiting.size();
+    }
+
+    /** On the thread of the scheduler. */
+    void submit(Pending pending) {
+        synchronized (this) {
+            waiting.addLast(pending);
+            //a replay waiting for a slot is still in the outbox, its time starts once it is sent
+            if (pending.onSent == null) {
+                startTimeout(pending);
+            }
+        }
+        drain();
+    }
+
+    private void startTimeout(Pending pending) {
+        if (timeoutMs > 0) {
+            pending.timeout = scheduler.schedule(() -> timedOut(pending), timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes the outbox replays which haven't been sent yet back out of the queue, without
+     * reporting anything, they stay in the outbox for the replay after the next connect.
+     */
+    synchronized int withdrawReplays() {
+        int withdrawn = 0;
+        for (Iterator<Pending> i = waiting.iterator(); i.hasNext(); ) {
+            Pending p = i.next();
+            if (p.onSent != null) {
+                i.remove();
+                p.finished = true;
+                withdrawn++;
+            }
+        }
+        return withdrawn;
+    }
+
+    //Paho and the timeouts report completions on their own threads
+    private void drainLater() {
+        try {
+            scheduler.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            //client stopped, clear() has failed what was left
+        }
+    }
+
+    //thread of the scheduler only, so two drains can't send the queue out of order
+    private void drain() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                if (inFlight.size() >= maxInflight || waiting.isEmpty()) {
+                    return;
+                }
+                next = waiting.pollFirst();
+            }
+            try {
+                next.sentNanos = System.nanoTime();
+                Object token = sender.send(next);
+                synchronized (this) {
+                    next.token = token;
+                    if (token == null) {
+                        next.finished = true;
+                        if (next.timeout != null) {
+                            next.timeout.cancel(false);
+                        }
+                        continue;
+                    }
+                    if (!next.finished) {
+                        inFlight.put(token, next);
+                        if (next.onSent != null) {
+                            startTimeout(next);
+                        }
+                    }
+                }
+                if (next.onSent != null) {
+                    next.onSent.run();
+                }
+            } catch (MqttException e) {
+                Log.e(TAG, "Error MQTT publish: " + e);
+                failed(next, e.getReasonCode() + " - " + e);
+            }
+        }
+    }
+
+    /** Broker acknowledged the message (PUBACK for QoS 1, PUBCOMP for QoS 2). */
+    void delivered(Object token, Object userContext) {
+        Pending p = finish(token, userContext);
+        if (p != null) {
+            metrics.publishDelivered(p.message.getQos(), System.nanoTime() - p.sentNanos);
+            drainLater();
+            if (p.callback != null) {
+                p.callback.onMessageDelivered();
+            }
+        }
+    }
+
+    void failed(Object token, Object userContext, String reason) {
+        Pending p = finish(token, userContext);
+        if (p != null) {
+            metrics.publishFailed();
+            drainLater();
+            if (p.callback != null) {
+                p.callback.onDeliveryFailed(reason);
+            }
+        }
+    }
+
+    private void failed(Pending p, String reason) {
+        synchronized (this) {
+            if (p.finished) {
+                return;
+            }
+            p.finished = true;
+            if (p.timeout != null) {
+                p.timeout.cancel(false);
+            }
+        }
+        metrics.publishFailed();
+        if (p.callback != null) {
+            p.callback.onDeliveryFailed(reason);
+        }
+    }
+
+    private void timedOut(Pending p) {
+        synchronized (this) {
+            if (p.finished) {
+                return;
+            }
+            p.finished = true;
+            if (p.token != null) {
+                inFlight.remove(p.token);
+            } else {
+                waiting.remove(p);
+            }
+        }
+        Log.e(TAG, "MQTT publish timeout: " + p.topic);
+        metrics.publishTimedOut();
+        drainLater();
+        if (p.callback != null) {
+            p.callback.onDeliveryTimeout();
+        }
+    }
+
+    private Pending finish(Object token, Object ctx) {
+        synchronized (this) {
+            Pending p = inFlight.remove(token);
+            if (p == null && ctx instanceof Pending) {
+                //acknowledged before send() returned the token
+                p = (Pending) ctx;
+            }
+            if (p == null || p.finished) {
+                return null;
+            }
+            p.finished = true;
+            if (p.timeout != null) {
+                p.timeout.cancel(false);
+            }
+            return p;
+        }
+    }
+
+    /** Fails everything still waiting or in flight, used when the client is stopped. */
+    void clear(String reason) {
+        List<Pending> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(inFlight.values());
+            dropped.addAll(waiting);
+            inFlight.clear();
+            waiting.clear();
+        }
+        for (Pending p : dropped) {
+            failed(p, reason);
+        }
+    }
+}
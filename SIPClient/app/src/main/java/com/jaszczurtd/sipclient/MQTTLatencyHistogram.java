@@ -0,0 +1,120 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram in the spirit of HdrHistogram: every power of two
+ * is split into {@link #SUB_BUCKETS} linear buckets, so any recorded value is kept
+ * with about 6% precision over the whole range (1 us .. ~12 days when recording
+ * microseconds). Recording is a couple of atomic increments and never allocates.
+ */
+public class MQTTLatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            //retry, another thread raised the max meanwhile
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    static long bucketWidth(int index) {
+        if (index < SUB_BUCKETS) {
+            return 1;
+        }
+        return 1L << (index / SUB_BUCKETS - 1);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Value below which the given percentage of the recorded values falls, 0 when empty. */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * n));
+        if (target >= n) {
+            return max.get();
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                //middle of the bucket, never above what was really recorded
+                return Math.min(lowestValue(i) + bucketWidth(i) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /** Short one line summary, values are printed in the recorded unit. */
+    public String summary() {
+        if (getCount() == 0) {
+            return "n=0";
+        }
+        return "n=" + getCount() +
+                " p50=" + getValueAtPercentile(50) +
+                " p90=" + getValueAtPercentile(90) +
+                " p99=" + getValueAtPercentile(99) +
+                " max=" + getMax() +
+                " mean=" + Math.round(getMean());
+    }
+}
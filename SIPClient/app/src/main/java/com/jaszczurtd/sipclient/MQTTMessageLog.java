@@ -0,0 +1,245 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small durable key/value store kept as an append-only log of put/remove records.
+ * Every change is a single buffered append followed by a flush to the OS, so it
+ * survives process death without an fsync per record. Live entries are mirrored in
+ * memory (insertion ordered); the file is compacted when it's mostly garbage.
+ */
+class MQTTMessageLog implements Constants {
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+    private DataOutputStream out;
+    private long fileBytes;
+    private long liveBytes;
+
+    MQTTMessageLog(File file) {
+        this.file = file;
+    }
+
+    synchronized void open() throws IOException {
+        if (out != null) {
+            return;
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        entries.clear();
+        liveBytes = 0;
+        long valid = load();
+        if (valid < file.length()) {
+            //torn record after a crash, drop it
+            Log.e(TAG, "MQTT log " + file.getName() + " truncated at " + valid);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        fileBytes = valid;
+        openAppend();
+        compactIfNeeded();
+    }
+
+    private long load() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte op;
+                String key;
+                byte[] data = null;
+                try {
+                    op = in.readByte();
+                    key = in.readUTF();
+                    if (op == OP_PUT) {
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_RECORD_BYTES) {
+                            break;
+                        }
+                        data = new byte[length];
+                        in.readFully(data);
+                    } else if (op != OP_REMOVE) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    //end of log
+                    break;
+                } catch (IOException e) {
+                    //e.g. a half written key, the log is cut before this record
+                    Log.e(TAG, "MQTT log " + file.getName() + " unreadable record at " + valid + ": " + e);
+                    break;
+                }
+                if (op == OP_PUT) {
+                    putEntry(key, data);
+                    valid += recordSize(op, key, data.length);
+                } else {
+                    removeEntry(key);
+                    valid += recordSize(op, key, 0);
+                }
+            }
+        }
+        return valid;
+    }
+
+    private static long recordSize(byte op, String key, int dataLength) {
+        long size = 1 + 2 + utfLength(key);
+        if (op == OP_PUT) {
+            size += 4 + dataLength;
+        }
+        return size;
+    }
+
+    private static int utfLength(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                len++;
+            } else if (c > 0x07FF) {
+                len += 3;
+            } else {
+                len += 2;
+            }
+        }
+        return len;
+    }
+
+    private void openAppend() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "MQTT log close problem: " + e);
+            }
+            out = null;
+        }
+    }
+
+    synchronized void put(String key, byte[] data) throws IOException {
+        ensureOpen();
+        out.writeByte(OP_PUT);
+        out.writeUTF(key);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+        fileBytes += recordSize(OP_PUT, key, data.length);
+        putEntry(key, data);
+    }
+
+    synchronized void remove(String key) throws IOException {
+        ensureOpen();
+        if (!entries.containsKey(key)) {
+            return;
+        }
+        out.writeByte(OP_REMOVE);
+        out.writeUTF(key);
+        out.flush();
+        fileBytes += recordSize(OP_REMOVE, key, 0);
+        removeEntry(key);
+        compactIfNeeded();
+    }
+
+    synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /** Keys in the order they were first put. */
+    synchronized List<String> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() throws IOException {
+        close();
+        entries.clear();
+        liveBytes = 0;
+        fileBytes = 0;
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot delete " + file);
+        }
+        openAppend();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (out == null) {
+            throw new IOException("MQTT log " + file.getName() + " is closed");
+        }
+    }
+
+    private void putEntry(String key, byte[] data) {
+        byte[] old = entries.put(key, data);
+        if (old != null) {
+            liveBytes -= recordSize(OP_PUT, key, old.length);
+        }
+        liveBytes += recordSize(OP_PUT, key, data.length);
+    }
+
+    private void removeEntry(String key) {
+        byte[] old = entries.remove(key);
+        if (old != null) {
+            liveBytes -= recordSize(OP_PUT, key, old.length);
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (fileBytes < COMPACT_MIN_BYTES || fileBytes < liveBytes * 2) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos))) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                tmpOut.writeByte(OP_PUT);
+                tmpOut.writeUTF(e.getKey());
+                tmpOut.writeInt(e.getValue().length);
+                tmpOut.write(e.getValue());
+            }
+            tmpOut.flush();
+            //the only sync, the rename below must not expose a half written file
+            fos.getFD().sync();
+        }
+        close();
+        if (!tmp.renameTo(file)) {
+            openAppend();
+            throw new IOException("cannot replace " + file);
+        }
+        fileBytes = liveBytes;
+        openAppend();
+    }
+}
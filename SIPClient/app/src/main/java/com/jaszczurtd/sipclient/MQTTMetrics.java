@@ -0,0 +1,186 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one {@link MQTTClient}. Everything is kept in
+ * atomics, the hot paths (publish acknowledged, message received) only increment
+ * them. Latencies are recorded in microseconds.
+ */
+public class MQTTMetrics {
+
+    public static final class TopicStats {
+        final AtomicLong messages = new AtomicLong();
+        final long firstNanos;
+        volatile long lastNanos;
+
+        TopicStats(long now) {
+            firstNanos = now;
+        }
+
+        public long getMessages() {
+            return messages.get();
+        }
+
+        /** Messages per second since the first message on this topic. */
+        public double getRate() {
+            long elapsed = System.nanoTime() - firstNanos;
+            return elapsed <= 0 ? 0 : messages.get() * 1e9 / elapsed;
+        }
+
+        public long getMillisSinceLast() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastNanos);
+        }
+    }
+
+    private final MQTTLatencyHistogram[] publishLatency = {
+            new MQTTLatencyHistogram(), new MQTTLatencyHistogram(), new MQTTLatencyHistogram()
+    };
+    private final MQTTLatencyHistogram connectTime = new MQTTLatencyHistogram();
+    private final MQTTLatencyHistogram reconnectTime = new MQTTLatencyHistogram();
+    private final Map<String, TopicStats> inbound = new ConcurrentHashMap<>();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong connectionLosses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+    private final AtomicLong publishTimeouts = new AtomicLong();
+    private final AtomicLong lostAtNanos = new AtomicLong();
+
+    void publishDelivered(int qos, long nanos) {
+        publishLatency[Math.max(0, Math.min(qos, 2))].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void publishFailed() {
+        publishFailures.incrementAndGet();
+    }
+
+    void publishTimedOut() {
+        publishTimeouts.incrementAndGet();
+    }
+
+    void messageReceived(String topic) {
+        long now = System.nanoTime();
+        TopicStats stats = inbound.get(topic);
+        if (stats == null) {
+            stats = inbound.computeIfAbsent(topic, t -> new TopicStats(now));
+        }
+        stats.messages.incrementAndGet();
+        stats.lastNanos = now;
+    }
+
+    /** CONNECT sent until CONNACK received, TCP and TLS setup included. */
+    void connected(long nanos) {
+        connects.incrementAndGet();
+        connectTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void connectFailed() {
+        connectFailures.incrementAndGet();
+    }
+
+    void connectionLost() {
+        connectionLosses.incrementAndGet();
+        lostAtNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /** Closes the time-to-reconnect measurement started by {@link #connectionLost()}. */
+    void connectComplete() {
+        long lostAt = lostAtNanos.getAndSet(0);
+        if (lostAt != 0) {
+            reconnects.incrementAndGet();
+            reconnectTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - lostAt));
+        }
+    }
+
+    public MQTTLatencyHistogram getPublishLatency(int qos) {
+        return publishLatency[qos];
+    }
+
+    public MQTTLatencyHistogram getConnectTime() {
+        return connectTime;
+    }
+
+    public MQTTLatencyHistogram getReconnectTime() {
+        return reconnectTime;
+    }
+
+    public Map<String, TopicStats> getInbound() {
+        return Collections.unmodifiableMap(inbound);
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public long getConnectionLosses() {
+        return connectionLosses.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getPublishFailures() {
+        return publishFailures.get();
+    }
+
+    public long getPublishTimeouts() {
+        return publishTimeouts.get();
+    }
+
+    public void reset() {
+        for (MQTTLatencyHistogram h : publishLatency) {
+            h.reset();
+        }
+        connectTime.reset();
+        reconnectTime.reset();
+        inbound.clear();
+        connects.set(0);
+        connectFailures.set(0);
+        connectionLosses.set(0);
+        reconnects.set(0);
+        publishFailures.set(0);
+        publishTimeouts.set(0);
+    }
+
+    /** Plain text report for logs and the diagnostics screen. */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("publish -> ack [us]\n");
+        for (int qos = 0; qos < publishLatency.length; qos++) {
+            sb.append("  QoS ").append(qos).append(": ").append(publishLatency[qos].summary()).append('\n');
+        }
+        sb.append("  failed: ").append(getPublishFailures())
+                .append(" timeouts: ").append(getPublishTimeouts()).append('\n');
+        sb.append("connect [us]: ").append(connectTime.summary()).append('\n');
+        sb.append("  connects: ").append(getConnects())
+                .append(" failures: ").append(getConnectFailures()).append('\n');
+        sb.append("TLS handshake [us]: ").append(MQTTSocketFactory.getHandshakeTime().summary()).append('\n');
+        sb.append("  full: ").append(MQTTSocketFactory.getFullHandshakes())
+                .append(" resumed: ").append(MQTTSocketFactory.getResumedHandshakes()).append('\n');
+        sb.append("connection lost: ").append(getConnectionLosses())
+                .append(" reconnects: ").append(getReconnects()).append('\n');
+        sb.append("time to reconnect [us]: ").append(reconnectTime.summary()).append('\n');
+        sb.append("inbound:\n");
+        List<String> topics = new ArrayList<>(inbound.keySet());
+        Collections.sort(topics);
+        for (String topic : topics) {
+            TopicStats s = inbound.get(topic);
+            sb.append("  ").append(topic).append(": ").append(s.getMessages())
+                    .append(String.format(" (%.3f/s, last %d ms ago)", s.getRate(), s.getMillisSinceLast()))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable FIFO of QoS 1/2 publishes issued while the client was offline. Entries are
+ * written to an {@link MQTTMessageLog}, so they survive process death, and are handed
+ * back in order on reconnect. Delivery callbacks can't be persisted, they are kept in
+ * memory for as long as the process lives.
+ */
+class MQTTOutbox implements Constants {
+
+    static final int MAX_ENTRIES = 500;
+    private static final String KEY_PREFIX = "q-";
+
+    static final class Entry {
+        final String key;
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final boolean retained;
+        final MQTTClient.MQTTMessageDelivered callback;
+
+        Entry(String key, String topic, byte[] payload, int qos, boolean retained,
+              MQTTClient.MQTTMessageDelivered callback) {
+            this.key = key;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.callback = callback;
+        }
+    }
+
+    private final MQTTMessageLog log;
+    private final Map<String, MQTTClient.MQTTMessageDelivered> callbacks = new HashMap<>();
+    private long nextSeq;
+    private boolean opened;
+
+    MQTTOutbox(File file) {
+        log = new MQTTMessageLog(file);
+    }
+
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        log.open();
+        for (String key : log.keys()) {
+            nextSeq = Math.max(nextSeq, Long.parseLong(key.substring(KEY_PREFIX.length())) + 1);
+        }
+        opened = true;
+        if (log.size() > 0) {
+            Log.v(TAG, "MQTT outbox restored " + log.size() + " message(s)");
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        try {
+            open();
+        } catch (IOException e) {
+            Log.e(TAG, "MQTT outbox problem: " + e);
+            return true;
+        }
+        return log.size() == 0;
+    }
+
+    synchronized boolean add(String topic, byte[] payload, int qos, boolean retained,
+                             MQTTClient.MQTTMessageDelivered callback) {
+        try {
+            open();
+            List<String> keys = log.keys();
+            for (int i = 0; i <= keys.size() - MAX_ENTRIES; i++) {
+                Log.e(TAG, "MQTT outbox full, dropping oldest message");
+                drop(keys.get(i), "outbox full");
+            }
+            String key = KEY_PREFIX + nextSeq++;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(topic.length() + payload.length + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(qos);
+            out.writeBoolean(retained);
+            out.writeUTF(topic);
+            out.write(payload);
+            log.put(key, bytes.toByteArray());
+            if (callback != null) {
+                callbacks.put(key, callback);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "MQTT outbox problem: " + e);
+            return false;
+        }
+    }
+
+    /** All queued entries, oldest first. They stay queued until {@link #remove(Entry)}. */
+    synchronized List<Entry> entries() {
+        List<Entry> result = new ArrayList<>();
+        try {
+            open();
+            for (String key : log.keys()) {
+                byte[] data = log.get(key);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                int qos = in.readByte();
+                boolean retained = in.readBoolean();
+                String topic = in.readUTF();
+                byte[] payload = new byte[in.available()];
+                in.readFully(payload);
+                result.add(new Entry(key, topic, payload, qos, retained, callbacks.get(key)));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "MQTT outbox problem: " + e);
+        }
+        return result;
+    }
+
+    synchronized void remove(Entry entry) {
+        try {
+            log.remove(entry.key);
+            callbacks.remove(entry.key);
+        } catch (IOException e) {
+            Log.e(TAG, "MQTT outbox problem: " + e);
+        }
+    }
+
+    private void drop(String key, String reason) throws IOException {
+        log.remove(key);
+        MQTTClient.MQTTMessageDelivered callback = callbacks.remove(key);
+        if (callback != null) {
+            callback.onDeliveryFailed(reason);
+        }
+    }
+
+    synchronized void close() {
+        log.close();
+        opened = false;
+    }
+}
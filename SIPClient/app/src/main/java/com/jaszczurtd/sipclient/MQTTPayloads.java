@@ -0,0 +1,45 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding and decoding of the on/off payloads. Kept free of Android classes,
+ * so it can be benchmarked on a plain JVM.
+ */
+final class MQTTPayloads implements Constants {
+
+    private static final byte[] ON = MQTT_ON.getBytes(StandardCharsets.US_ASCII);
+
+    private MQTTPayloads() {
+    }
+
+    static byte[] encode(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static MqttMessage message(String payload, int qos, boolean retained) {
+        MqttMessage message = new MqttMessage(encode(payload));
+        message.setQos(qos);
+        message.setRetained(retained);
+        return message;
+    }
+
+    /** Same as comparing the payload string to {@link #MQTT_ON} ignoring case, without building the string. */
+    static boolean isOn(byte[] payload) {
+        if (payload == null || payload.length != ON.length) {
+            return false;
+        }
+        for (int i = 0; i < ON.length; i++) {
+            int c = payload[i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != ON[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
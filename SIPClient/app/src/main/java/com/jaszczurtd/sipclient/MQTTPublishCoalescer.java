@@ -0,0 +1,138 @@
+package com.jaszczurtd.sipclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttles retained publishes per topic. The first value for a topic goes out
+ * immediately and opens a window; values published while the window is open only
+ * replace each other and the last one is sent when the window closes. Callbacks of
+ * replaced values are completed together with the value which finally went out.
+ */
+class MQTTPublishCoalescer {
+
+    interface Sender {
+        void send(String topic, String payload, boolean retained, MQTTClient.MQTTMessageDelivered callback);
+    }
+
+    private static final class Window {
+        String payload;
+        boolean retained;
+        final List<MQTTClient.MQTTMessageDelivered> callbacks = new ArrayList<>();
+    }
+
+    private final Map<String, Window> windows = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Sender sender;
+    private volatile long windowMs;
+
+    MQTTPublishCoalescer(ScheduledExecutorService scheduler, Sender sender, long windowMs) {
+        this.scheduler = scheduler;
+        this.sender = sender;
+        this.windowMs = windowMs;
+    }
+
+    void setWindow(long ms) {
+        windowMs = ms;
+    }
+
+    void publish(String topic, String payload, boolean retained, MQTTClient.MQTTMessageDelivered callback) {
+        if (windowMs <= 0) {
+            sender.send(topic, payload, retained, callback);
+            return;
+        }
+        synchronized (this) {
+            Window w = windows.get(topic);
+            if (w != null) {
+                //window is open, the newest value wins
+                w.payload = payload;
+                w.retained = retained;
+                if (callback != null) {
+                    w.callbacks.add(callback);
+                }
+                return;
+            }
+            windows.put(topic, new Window());
+        }
+        scheduleClose(topic);
+        sender.send(topic, payload, retained, callback);
+    }
+
+    private void close(String topic) {
+        Window w;
+        synchronized (this) {
+            w = windows.get(topic);
+            if (w == null) {
+                return;
+            }
+            if (w.payload == null) {
+                windows.remove(topic);
+                return;
+            }
+            windows.put(topic, new Window());
+        }
+        scheduleClose(topic);
+        sender.send(topic, w.payload, w.retained, merge(w.callbacks));
+    }
+
+    //after the client stopped no window is opened, the sender fails the publish itself
+    private void scheduleClose(String topic) {
+        try {
+            scheduler.schedule(() -> close(topic), windowMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                windows.remove(topic);
+            }
+        }
+    }
+
+    private static MQTTClient.MQTTMessageDelivered merge(List<MQTTClient.MQTTMessageDelivered> callbacks) {
+        if (callbacks.isEmpty()) {
+            return null;
+        }
+        if (callbacks.size() == 1) {
+            return callbacks.get(0);
+        }
+        return new MQTTClient.MQTTMessageDelivered() {
+            @Override
+            public void onMessageDelivered() {
+                for (MQTTClient.MQTTMessageDelivered c : callbacks) {
+                    c.onMessageDelivered();
+                }
+            }
+
+            @Override
+            public void onDeliveryTimeout() {
+                for (MQTTClient.MQTTMessageDelivered c : callbacks) {
+                    c.onDeliveryTimeout();
+                }
+            }
+
+            @Override
+            public void onDeliveryFailed(String reason) {
+                for (MQTTClient.MQTTMessageDelivered c : callbacks) {
+                    c.onDeliveryFailed(reason);
+                }
+            }
+        };
+    }
+
+    /** Drops values waiting for their window to close. */
+    void clear(String reason) {
+        List<MQTTClient.MQTTMessageDelivered> dropped = new ArrayList<>();
+        synchronized (this) {
+            for (Window w : windows.values()) {
+                dropped.addAll(w.callbacks);
+            }
+            windows.clear();
+        }
+        for (MQTTClient.MQTTMessageDelivered c : dropped) {
+            c.onDeliveryFailed(reason);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single reconnect loop for one MQTTClient. Attempts are spaced with exponential
+ * backoff (capped) and randomized by half of the current delay, so several phones
+ * dropped at the same time don't hit the broker in lockstep. At most one attempt
+ * is scheduled or running at any time.
+ */
+class MQTTReconnectScheduler implements Constants {
+
+    interface Attempt {
+        /** Starts one reconnect attempt, it has to end with {@link #attemptFinished(boolean)}. */
+        void reconnect(int attempt);
+    }
+
+    static final long DEFAULT_MIN_DELAY_MS = 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 60000;
+
+    private final ScheduledExecutorService scheduler;
+    private final Attempt attempt;
+    private final Random random = new Random();
+    private final long minDelayMs;
+    private final long maxDelayMs;
+
+    private ScheduledFuture<?> pending;
+    private boolean inFlight;
+    private boolean active;
+    private int attempts;
+
+    MQTTReconnectScheduler(ScheduledExecutorService scheduler, Attempt attempt, long minDelayMs, long maxDelayMs) {
+        this.scheduler = scheduler;
+        this.attempt = attempt;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = Math.max(minDelayMs, maxDelayMs);
+    }
+
+    /** Starts the loop unless it is already running. */
+    synchronized void start() {
+        if (active) {
+            return;
+        }
+        active = true;
+        attempts = 0;
+        scheduleNext();
+    }
+
+    /**
+     * Starts the loop with the backoff reset and the first attempt right away, also when
+     * it was already waiting. An attempt which is running is left to finish.
+     */
+    synchronized void startNow() {
+        active = true;
+        attempts = 0;
+        if (inFlight) {
+            return;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        Log.v(TAG, "MQTT reconnect attempt now");
+        pending = scheduler.schedule(this::fire, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the loop, an attempt which is already running is left to finish. */
+    synchronized void cancel() {
+        active = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    synchronized boolean isActive() {
+        return active;
+    }
+
+    synchronized void attemptFinished(boolean connected) {
+        inFlight = false;
+        if (connected) {
+            if (active) {
+                Log.v(TAG, "MQTT reconnected after " + attempts + " attempt(s)");
+            }
+            cancel();
+        } else if (active) {
+            scheduleNext();
+        }
+    }
+
+    long nextDelay(int attempt) {
+        long delay = minDelayMs << Math.min(attempt, 16);
+        if (delay <= 0 || delay > maxDelayMs) {
+            delay = maxDelayMs;
+        }
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    private void scheduleNext() {
+        if (pending != null || inFlight) {
+            return;
+        }
+        long delay = nextDelay(attempts);
+        Log.v(TAG, "MQTT reconnect attempt " + (attempts + 1) + " in " + delay + "ms");
+        pending = scheduler.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire() {
+        int n;
+        synchronized (this) {
+            pending = null;
+            if (!active || inFlight) {
+                return;
+            }
+            inFlight = true;
+            n = ++attempts;
+        }
+        attempt.reconnect(n);
+    }
+}
@@ -0,0 +1,66 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known value of every retained topic, with the time it was received. It is
+ * loaded synchronously when the client is created, before any network activity, so
+ * the UI can show the previous state right away and mark it as stale until the
+ * broker delivers the current retained messages.
+ */
+class MQTTRetainedStateCache implements Constants {
+
+    private static final String PREFS = "mqtt_retained";
+
+    static final class Value {
+        final byte[] payload;
+        final long timestamp;
+        //true until the value has been confirmed by the broker in this process
+        final boolean stale;
+
+        Value(byte[] payload, long timestamp, boolean stale) {
+            this.payload = payload;
+            this.timestamp = timestamp;
+            this.stale = stale;
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final Map<String, Value> values = new ConcurrentHashMap<>();
+
+    MQTTRetainedStateCache(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            if (!(e.getValue() instanceof String)) {
+                continue;
+            }
+            String stored = (String) e.getValue();
+            int sep = stored.indexOf(':');
+            try {
+                long timestamp = Long.parseLong(stored.substring(0, sep));
+                values.put(e.getKey(), new Value(stored.substring(sep + 1).getBytes(), timestamp, true));
+            } catch (Exception ex) {
+                Log.e(TAG, "MQTT retained cache entry broken: " + e.getKey());
+            }
+        }
+    }
+
+    Value get(String topic) {
+        return values.get(topic);
+    }
+
+    /** Stores retained messages and refreshes topics which are already cached. */
+    void update(String topic, byte[] payload, boolean retained) {
+        if (!retained && !values.containsKey(topic)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        values.put(topic, new Value(payload, now, false));
+        prefs.edit().putString(topic, now + ":" + new String(payload)).apply();
+    }
+}
@@ -0,0 +1,170 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Process wide TLS socket factory for the MQTT connection. The CA from res/raw is
+ * parsed once and a single SSLContext is kept, so its client session cache survives
+ * reconnects and the broker can resume the previous session (abbreviated handshake)
+ * instead of doing a full one every time.
+ */
+public final class MQTTSocketFactory extends SSLSocketFactory implements Constants {
+
+    private static final int SESSION_CACHE_SIZE = 16;
+    private static final int SESSION_TIMEOUT_S = 24 * 60 * 60;
+
+    private static MQTTSocketFactory instance;
+
+    private static final AtomicInteger fullHandshakes = new AtomicInteger();
+    private static final AtomicInteger resumedHandshakes = new AtomicInteger();
+    //socket created until handshake done, so TCP connect is included
+    private static final MQTTLatencyHistogram handshakeTime = new MQTTLatencyHistogram();
+
+    private final SSLSocketFactory delegate;
+
+    //this method requires x509 certificate (ca.crt) in res/raw
+    public static synchronized SSLSocketFactory get(Context context) throws Exception {
+        if (instance == null) {
+            instance = new MQTTSocketFactory(createContext(context));
+        }
+        return instance;
+    }
+
+    public static int getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public static int getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /** TCP connect plus TLS handshake, in microseconds. */
+    public static MQTTLatencyHistogram getHandshakeTime() {
+        return handshakeTime;
+    }
+
+    private static SSLContext createContext(Context context) throws Exception {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        InputStream caInput = context.getResources().openRawResource(R.raw.ca);
+        Certificate ca;
+        try {
+            ca = cf.generateCertificate(caInput);
+        } finally {
+            caInput.close();
+        }
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("ca", ca);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        SSLContext contextTLS = SSLContext.getInstance("TLS");
+        contextTLS.init(null, tmf.getTrustManagers(), null);
+
+        SSLSessionContext sessions = contextTLS.getClientSessionContext();
+        if (sessions != null) {
+            sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(SESSION_TIMEOUT_S);
+        }
+        return contextTLS;
+    }
+
+    private MQTTSocketFactory(SSLContext context) {
+        delegate = context.getSocketFactory();
+    }
+
+    private Socket prepare(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            SSLSocket ssl = (SSLSocket) socket;
+            enableSessionTickets(ssl);
+            long created = System.nanoTime();
+            long createdAt = System.currentTimeMillis();
+            ssl.addHandshakeCompletedListener(event -> handshakeCompleted(event, created, createdAt));
+        }
+        return socket;
+    }
+
+    //Conscrypt keeps session tickets behind a non public setter
+    private static void enableSessionTickets(SSLSocket socket) {
+        try {
+            Method m = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            m.invoke(socket, true);
+        } catch (Exception e) {
+            Log.v(TAG, "TLS session tickets not available: " + e);
+        }
+    }
+
+    private static void handshakeCompleted(HandshakeCompletedEvent event, long createdNanos, long createdAt) {
+        handshakeTime.record((System.nanoTime() - createdNanos) / 1000);
+        //a resumed session is older than the socket; TLS 1.3 hands out a new session ID
+        //on every resumption, so the ID can't tell
+        boolean resumed = event.getSession().getCreationTime() < createdAt;
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+        Log.v(TAG, "MQTT TLS handshake " + (resumed ? "resumed" : "full") +
+                " (full:" + fullHandshakes.get() + " resumed:" + resumedHandshakes.get() + ")");
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return prepare(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return prepare(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return prepare(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return prepare(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return prepare(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return prepare(delegate.createSocket(address, port, localAddress, localPort));
+    }
+}
@@ -0,0 +1,180 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the wanted set of subscriptions and what the broker session already holds.
+ * Only the difference is sent: all new filters in one SUBSCRIBE, all dropped ones in
+ * one UNSUBSCRIBE. The broker side set is persisted, so when the broker reports
+ * sessionPresent nothing has to be sent at all, even after the app was restarted.
+ */
+class MQTTSubscriptionManager implements Constants {
+
+    private static final String PREFS = "mqtt_subscriptions";
+    private static final String KEY_SUBSCRIBED = "subscribed";
+
+    interface Transport {
+        boolean isConnected();
+        void subscribe(String[] filters, int[] qos, MQTTTransport.Result result) throws MqttException;
+        void unsubscribe(String[] filters, MQTTTransport.Result result) throws MqttException;
+    }
+
+    private final SharedPreferences prefs;
+    private final Transport transport;
+    private final Map<String, Integer> desired = new HashMap<>();
+    private final Map<String, Integer> subscribed = new HashMap<>();
+    private final Set<String> requested = new HashSet<>();
+
+    MQTTSubscriptionManager(Context context, Transport transport) {
+        this.transport = transport;
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        Set<String> stored = prefs.getStringSet(KEY_SUBSCRIBED, null);
+        if (stored != null) {
+            for (String s : stored) {
+                int sep = s.indexOf(':');
+                subscribed.put(s.substring(sep + 1), Integer.parseInt(s.substring(0, sep)));
+            }
+        }
+    }
+
+    synchronized void add(String filter, int qos) {
+        desired.put(filter, qos);
+        sync();
+    }
+
+    synchronized void remove(String filter) {
+        desired.remove(filter);
+        sync();
+    }
+
+    synchronized Set<String> getSubscribed() {
+        return new HashSet<>(subscribed.keySet());
+    }
+
+    /** Called after every successful connect. */
+    synchronized void connected(boolean sessionPresent) {
+        requested.clear();
+        if (!sessionPresent) {
+            //fresh session on the broker side, nothing is subscribed there
+            subscribed.clear();
+            save();
+        }
+        sync();
+    }
+
+    synchronized void sync() {
+        if (!transport.isConnected()) {
+            return;
+        }
+        List<String> toAdd = new ArrayList<>();
+        List<String> toRemove = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : desired.entrySet()) {
+            if (!e.getValue().equals(subscribed.get(e.getKey())) && !requested.contains(e.getKey())) {
+                toAdd.add(e.getKey());
+            }
+        }
+        for (String filter : subscribed.keySet()) {
+            if (!desired.containsKey(filter) && !requested.contains(filter)) {
+                toRemove.add(filter);
+            }
+        }
+        if (!toAdd.isEmpty()) {
+            subscribe(toAdd);
+        }
+        if (!toRemove.isEmpty()) {
+            unsubscribe(toRemove);
+        }
+    }
+
+    private void subscribe(List<String> filters) {
+        final String[] f = filters.toArray(new String[0]);
+        final int[] qos = new int[f.length];
+        for (int i = 0; i < f.length; i++) {
+            qos[i] = desired.get(f[i]);
+        }
+        requested.addAll(filters);
+        Log.v(TAG, "subscribe to: " + filters);
+        try {
+            transport.subscribe(f, qos, new MQTTTransport.Result() {
+                @Override
+                public void onSuccess(boolean sessionPresent, int[] granted) {
+                    synchronized (MQTTSubscriptionManager.this) {
+                        for (int i = 0; i < f.length; i++) {
+                            requested.remove(f[i]);
+                            if (granted != null && i < granted.length && granted[i] >= 0x80) {
+                                Log.e(TAG, "Error MQTT subscription refused: " + f[i]);
+                                continue;
+                            }
+                            subscribed.put(f[i], qos[i]);
+                        }
+                        save();
+                        //the wanted set may have changed while this was in flight
+                        sync();
+                    }
+                }
+
+                @Override
+                public void onFailure(Object token, MqttException exception) {
+                    Log.e(TAG, "Error MQTT subscription: " + exception);
+                    synchronized (MQTTSubscriptionManager.this) {
+                        requested.removeAll(filters);
+                    }
+                }
+            });
+        } catch (MqttException e) {
+            requested.removeAll(filters);
+            Log.e(TAG, "Error MQTT subscription: " + e.getReasonCode() + " - " + e);
+        }
+    }
+
+    private void unsubscribe(List<String> filters) {
+        final String[] f = filters.toArray(new String[0]);
+        requested.addAll(filters);
+        Log.v(TAG, "unsubscribe from: " + filters);
+        try {
+            transport.unsubscribe(f, new MQTTTransport.Result() {
+                @Override
+                public void onSuccess(boolean sessionPresent, int[] granted) {
+                    synchronized (MQTTSubscriptionManager.this) {
+                        for (String filter : f) {
+                            requested.remove(filter);
+                            subscribed.remove(filter);
+                        }
+                        save();
+                        sync();
+                    }
+                }
+
+                @Override
+                public void onFailure(Object token, MqttException exception) {
+                    Log.e(TAG, "Error MQTT unsubscription: " + exception);
+                    synchronized (MQTTSubscriptionManager.this) {
+                        requested.removeAll(filters);
+                    }
+                }
+            });
+        } catch (MqttException e) {
+            requested.removeAll(filters);
+            Log.e(TAG, "Error MQTT unsubscription: " + e.getReasonCode() + " - " + e);
+        }
+    }
+
+    private void save() {
+        Set<String> stored = new HashSet<>();
+        for (Map.Entry<String, Integer> e : subscribed.entrySet()) {
+            stored.add(e.getValue() + ":" + e.getKey());
+        }
+        prefs.edit().putStringSet(KEY_SUBSCRIBED, stored).apply();
+    }
+}
@@ -0,0 +1,114 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes inbound messages to handlers registered per topic filter. Filters are
+ * split into levels once, at registration, and stored in a trie; '+' and '#'
+ * get their own branches. Dispatching walks the trie level by level, so its cost
+ * depends on the depth of the topic and not on the number of registered filters.
+ */
+class MQTTTopicRouter implements Constants {
+
+    private static final class Node {
+        final Map<String, Node> children = new ConcurrentHashMap<>();
+        volatile Node singleLevel;
+        final List<IMqttMessageListener> multiLevelHandlers = new CopyOnWriteArrayList<>();
+        final List<IMqttMessageListener> handlers = new CopyOnWriteArrayList<>();
+    }
+
+    private final Node root = new Node();
+
+    synchronized void add(String filter, IMqttMessageListener handler) {
+        Node node = root;
+        String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if ("#".equals(level)) {
+                if (i != levels.length - 1) {
+                    throw new IllegalArgumentException("'#' has to be the last level: " + filter);
+                }
+                node.multiLevelHandlers.add(handler);
+                return;
+            }
+            if ("+".equals(level)) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node();
+                }
+                node = node.singleLevel;
+            } else {
+                Node next = node.children.get(level);
+                if (next == null) {
+                    next = new Node();
+                    node.children.put(level, next);
+                }
+                node = next;
+            }
+        }
+        node.handlers.add(handler);
+    }
+
+    synchronized boolean remove(String filter, IMqttMessageListener handler) {
+        Node node = root;
+        String[] levels = filter.split("/", -1);
+        for (String level : levels) {
+            if ("#".equals(level)) {
+                return node.multiLevelHandlers.remove(handler);
+            }
+            node = "+".equals(level) ? node.singleLevel : node.children.get(level);
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.handlers.remove(handler);
+    }
+
+    /** @return number of handlers which received the message */
+    int dispatch(String topic, MqttMessage message) {
+        //wildcards in the first level never match topics starting with '$' (MQTT 4.7.2)
+        boolean wildcards = !topic.startsWith("$");
+        return match(root, topic, 0, message, wildcards);
+    }
+
+    private int match(Node node, String topic, int start, MqttMessage message, boolean wildcards) {
+        int delivered = 0;
+        if (wildcards) {
+            delivered += deliver(node.multiLevelHandlers, topic, message);
+        }
+        if (start > topic.length()) {
+            return delivered + deliver(node.handlers, topic, message);
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        Node exact = node.children.isEmpty() ? null : node.children.get(topic.substring(start, end));
+        if (exact != null) {
+            delivered += match(exact, topic, end + 1, message, true);
+        }
+        Node single = node.singleLevel;
+        if (single != null && wildcards) {
+            delivered += match(single, topic, end + 1, message, true);
+        }
+        return delivered;
+    }
+
+    private int deliver(List<IMqttMessageListener> handlers, String topic, MqttMessage message) {
+        for (IMqttMessageListener h : handlers) {
+            try {
+                h.messageArrived(topic, message);
+            } catch (Exception e) {
+                Log.e(TAG, "MQTT handler problem for " + topic + ": " + e);
+            }
+        }
+        return handlers.size();
+    }
+}
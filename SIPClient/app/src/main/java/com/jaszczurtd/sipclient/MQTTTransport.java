@@ -0,0 +1,48 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Protocol version specific part of {@link MQTTClient}. Everything above it (router,
+ * in-flight window, outbox, subscriptions) works with the v3 types, implementations
+ * for other protocol versions translate messages, tokens and errors to them.
+ */
+interface MQTTTransport {
+
+    interface Listener {
+        void connectComplete(boolean reconnect, String serverURI);
+        void connectionLost(Throwable cause);
+        void messageArrived(String topic, MqttMessage message);
+        /** @param token same object as returned by {@link #publish} */
+        void deliveryComplete(Object token, Object userContext);
+    }
+
+    interface Result {
+        /** @param grantedQos for subscribe requests, otherwise null */
+        void onSuccess(boolean sessionPresent, int[] grantedQos);
+        void onFailure(Object token, MqttException exception);
+    }
+
+    void setListener(Listener listener);
+
+    void connect(MqttConnectOptions options, Result result) throws MqttException;
+
+    /** @return token identifying the publish in {@link Listener#deliveryComplete} */
+    Object publish(String topic, MqttMessage message, Object userContext, Result result) throws MqttException;
+
+    void subscribe(String[] filters, int[] qos, Result result) throws MqttException;
+
+    void unsubscribe(String[] filters, Result result) throws MqttException;
+
+    /** Paho's default time for in-flight work to finish before disconnecting. */
+    long DEFAULT_QUIESCE_MS = 30000;
+
+    /** @param quiesceMs time in-flight work gets to finish first, 0 disconnects right away */
+    void disconnect(long quiesceMs, Result result) throws MqttException;
+
+    void close();
+
+    boolean isConnected();
+}
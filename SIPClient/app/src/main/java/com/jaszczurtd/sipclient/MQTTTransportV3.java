@@ -0,0 +1,106 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.File;
+
+/** MQTT 3.1.1 over Paho's mqttv3 client. */
+class MQTTTransportV3 implements MQTTTransport, Constants {
+
+    private final MqttAsyncClient client;
+
+    MQTTTransportV3(String serverURI, String clientId, File dir) throws MqttException {
+        client = new MqttAsyncClient(serverURI, clientId, new MQTTFilePersistence(dir));
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                listener.connectComplete(reconnect, serverURI);
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                listener.connectionLost(cause);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                listener.messageArrived(topic, message);
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                listener.deliveryComplete(token, token.getUserContext());
+            }
+        });
+    }
+
+    @Override
+    public void connect(MqttConnectOptions options, Result result) throws MqttException {
+        client.connect(options, null, listener(result));
+    }
+
+    @Override
+    public Object publish(String topic, MqttMessage message, Object userContext, Result result) throws MqttException {
+        return client.publish(topic, message, userContext, listener(result));
+    }
+
+    @Override
+    public void subscribe(String[] filters, int[] qos, Result result) throws MqttException {
+        client.subscribe(filters, qos, null, listener(result));
+    }
+
+    @Override
+    public void unsubscribe(String[] filters, Result result) throws MqttException {
+        client.unsubscribe(filters, null, listener(result));
+    }
+
+    @Override
+    public void disconnect(long quiesceMs, Result result) throws MqttException {
+        client.disconnect(quiesceMs, null, listener(result));
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close(true);
+        } catch (Exception e) {
+            Log.e(TAG, "Error MQTT client close: " + e);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    private static IMqttActionListener listener(Result result) {
+        if (result == null) {
+            return null;
+        }
+        return new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                result.onSuccess(token.getSessionPresent(), token.getGrantedQos());
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable exception) {
+                result.onFailure(token, exception instanceof MqttException ?
+                        (MqttException) exception : new MqttException(exception));
+            }
+        };
+    }
+}
@@ -0,0 +1,190 @@
+package com.jaszczurtd.sipclient;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttActionListener;
+import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
+import org.eclipse.paho.mqttv5.client.MqttCallback;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.eclipse.paho.mqttv5.common.packet.MqttReturnCode;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MQTT 5 over Paho's mqttv5 client. Compared to 3.1.1 the session gets an expiry
+ * interval, so a short drop on mobile data resumes the session instead of the broker
+ * keeping it forever, and the broker may send at most {@link #RECEIVE_MAXIMUM}
+ * unacknowledged QoS 1/2 messages at once. Topic aliases are accepted from the broker
+ * and assigned by Paho for outgoing publishes whenever the broker allows them.
+ */
+class MQTTTransportV5 implements MQTTTransport, Constants {
+
+    static final long SESSION_EXPIRY_S = 60 * 60;
+    static final int RECEIVE_MAXIMUM = 20;
+    static final int TOPIC_ALIAS_MAXIMUM = 16;
+
+    private final MqttAsyncClient client;
+
+    MQTTTransportV5(String serverURI, String clientId, File dir) throws MqttException {
+        try {
+            client = new MqttAsyncClient(serverURI, clientId, new MQTTFilePersistenceV5(dir));
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void disconnected(MqttDisconnectResponse response) {
+                listener.connectionLost(response.getException() != null ?
+                        response.getException() : new Exception(response.toString()));
+            }
+
+            @Override
+            public void mqttErrorOccurred(org.eclipse.paho.mqttv5.common.MqttException exception) {
+                Log.e(TAG, "MQTT 5 error: " + exception);
+            }
+
+            @Override
+            public void messageArrived(String topic, org.eclipse.paho.mqttv5.common.MqttMessage message) {
+                listener.messageArrived(topic, convert(message));
+            }
+
+            @Override
+            public void deliveryComplete(IMqttToken token) {
+                listener.deliveryComplete(token, token.getUserContext());
+            }
+
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                listener.connectComplete(reconnect, serverURI);
+            }
+
+            @Override
+            public void authPacketArrived(int reasonCode, MqttProperties properties) {
+            }
+        });
+    }
+
+    @Override
+    public void connect(MqttConnectOptions options, Result result) throws MqttException {
+        MqttConnectionOptions o = new MqttConnectionOptions();
+        o.setUserName(options.getUserName());
+        if (options.getPassword() != null) {
+            o.setPassword(new String(options.getPassword()).getBytes(StandardCharsets.UTF_8));
+        }
+        o.setCleanStart(options.isCleanSession());
+        o.setSessionExpiryInterval(options.isCleanSession() ? 0L : SESSION_EXPIRY_S);
+        o.setReceiveMaximum(RECEIVE_MAXIMUM);
+        o.setTopicAliasMaximum(TOPIC_ALIAS_MAXIMUM);
+        o.setKeepAliveInterval(options.getKeepAliveInterval());
+        o.setConnectionTimeout(options.getConnectionTimeout());
+        o.setAutomaticReconnect(options.isAutomaticReconnect());
+        o.setSocketFactory(options.getSocketFactory());
+        try {
+            client.connect(o, null, listener(result));
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public Object publish(String topic, MqttMessage message, Object userContext, Result result) throws MqttException {
+        org.eclipse.paho.mqttv5.common.MqttMessage m =
+                new org.eclipse.paho.mqttv5.common.MqttMessage(message.getPayload());
+        m.setQos(message.getQos());
+        m.setRetained(message.isRetained());
+        try {
+            return client.publish(topic, m, userContext, listener(result));
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public void subscribe(String[] filters, int[] qos, Result result) throws MqttException {
+        try {
+            client.subscribe(filters, qos, null, listener(result));
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public void unsubscribe(String[] filters, Result result) throws MqttException {
+        try {
+            client.unsubscribe(filters, null, listener(result), new MqttProperties());
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public void disconnect(long quiesceMs, Result result) throws MqttException {
+        try {
+            client.disconnect(quiesceMs, null, listener(result), MqttReturnCode.RETURN_CODE_SUCCESS,
+                    new MqttProperties());
+        } catch (org.eclipse.paho.mqttv5.common.MqttException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close(true);
+        } catch (Exception e) {
+            Log.e(TAG, "Error MQTT client close: " + e);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    private static MqttActionListener listener(Result result) {
+        if (result == null) {
+            return null;
+        }
+        return new MqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                result.onSuccess(token.getSessionPresent(), token.getReasonCodes());
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable exception) {
+                result.onFailure(token, convert(exception));
+            }
+        };
+    }
+
+    //client side reason codes are the same in both Paho versions
+    static MqttException convert(Throwable e) {
+        if (e instanceof MqttException) {
+            return (MqttException) e;
+        }
+        if (e instanceof org.eclipse.paho.mqttv5.common.MqttException) {
+            return new MqttException(((org.eclipse.paho.mqttv5.common.MqttException) e).getReasonCode(), e);
+        }
+        return new MqttException(e);
+    }
+
+    static MqttMessage convert(org.eclipse.paho.mqttv5.common.MqttMessage message) {
+        MqttMessage m = new MqttMessage(message.getPayload());
+        m.setQos(message.getQos());
+        m.setRetained(message.isRetained());
+        m.setId(message.getId());
+        return m;
+    }
+}
@@ -11,35 +11,61 @@ import androidx.core.content.ContextCompat;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
+import android.content.Intent;
 import android.content.res.Configuration;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
+import android.graphics.Color;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.text.InputType;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.linphone.core.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity implements Constants {
     private AlertDialog alert;
-    private Core linphoneCore;
     private ZoomableVideoTextureView remoteVideoView;
     private ConstraintLayout videoContainer;
-    private Button callHomeButton, callGarageButton, callKitchenButton, hangupButton;
-    private SwitchCompat switchLight, switchBell;
-    private CompoundButton.OnCheckedChangeListener lightListener, bellListener;
+    private Button hangupButton;
+    //a button per device and the grid one, generated from the DeviceRegistry
+    private LinearLayout callButtons;
+    private LinearLayout gridContainer;
+    //open camera grid, null in the single call mode
+    private CameraGrid cameraGrid;
+    //grid waiting for the registration of a lazily started Linphone
+    private boolean pendingGrid;
+    //switches of the device in the call by topic, generated from its controls
+    private final Map<String, SwitchCompat> switches = new HashMap<>();
+    private final CompoundButton.OnCheckedChangeListener switchListener =
+            (btn, isChecked) -> setControlTo((String) btn.getTag(), isChecked);
+    private DeviceRegistry.Device switchesDevice;
     private LinearLayout toggleContainer;
     private MQTTClient mqttClient;
     private NetworkMonitor networkMonitor;
@@ -47,6 +73,14 @@ public class MainActivity extends AppCompatActivity implements Constants {
     private View sipStatusDot, mqttStatusDot;
     private String sipUser, sipDomain, sipPassword;
     private RegistrationState linphoneConnected;
+    //lazy SIP mode: Linphone starts with the first call or a doorbell event
+    private boolean lazySip;
+    //call waiting for the registration of a lazily started Linphone
+    private String pendingCallUser;
+    private final LinphoneListener linphoneListener = new LinphoneListener();
+    private IMqttMessageListener controlHandler, devicesHandler, doorbellHandler;
+    //control topics with controlHandler added and subscribed
+    private final Set<String> controlTopics = new HashSet<>();
 
     private static final String[] PERMISSIONS = {
             Manifest.permission.RECORD_AUDIO,
@@ -54,11 +88,10 @@ public class MainActivity extends AppCompatActivity implements Constants {
             Manifest.permission.INTERNET
     };
     private static final int PERMISSION_REQUEST_CODE = 1;
+    private static final float STALE_STATE_ALPHA = 0.5f;
 
     private void handleNoNetwork() {
-        callHomeButton.setVisibility(View.GONE);
-        callGarageButton.setVisibility(View.GONE);
-        callKitchenButton.setVisibility(View.GONE);
+        callButtons.setVisibility(View.GONE);
         hangupButton.setVisibility(View.GONE);
         toggleContainer.setVisibility(View.GONE);
 
@@ -110,8 +143,10 @@ public class MainActivity extends AppCompatActivity implements Constants {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginSection("MainActivity onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        markFirstFrame();
 
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_SENSOR);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -123,13 +158,10 @@ public class MainActivity extends AppCompatActivity implements Constants {
         });
         videoContainer.setVisibility(View.GONE);
 
-        callHomeButton = findViewById(R.id.callHomeButton);
-        callGarageButton = findViewById(R.id.callGarageButton);
-        callKitchenButton = findViewById(R.id.callKitchenButton);
+        callButtons = findViewById(R.id.callButtons);
+        gridContainer = findViewById(R.id.gridContainer);
         hangupButton = findViewById(R.id.hangupButton);
-        switchLight = findViewById(R.id.switchLight);
         toggleContainer = findViewById(R.id.toggleContainer);
-        switchBell = findViewById(R.id.switchBell);
         sipStatusDot = findViewById(R.id.sipStatusDot);
         mqttStatusDot = findViewById(R.id.mqttStatusDot);
         setSipStatus(CONN_NONE);
@@ -139,6 +171,10 @@ public class MainActivity extends AppCompatActivity implements Constants {
         settingsButton.setOnClickListener(v -> {
             askForSIPandMQTTCredentials(true);
         });
+        settingsButton.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
+            return true;
+        });
 
         networkMonitor = new NetworkMonitor(this, new NetworkMonitor.NetworkStatusListener() {
             @Override
@@ -150,6 +186,13 @@ public class MainActivity extends AppCompatActivity implements Constants {
             public void onDisconnected() {
                 Log.v(TAG, "Internet has been disconnected");
             }
+
+            @Override
+            public void onTransportChanged(Transport transport, boolean metered) {
+                if (cameraGrid != null) {
+                    cameraGrid.networkChanged();
+                }
+            }
         });
 
         networkMonitor.startMonitoring();
@@ -161,6 +204,18 @@ public class MainActivity extends AppCompatActivity implements Constants {
             ActivityCompat.requestPermissions(this, PERMISSIONS, PERMISSION_REQUEST_CODE);
         }
 
+        //connections may still be up from the previous Activity instance
+        ConnectionHolder holder = ConnectionHolder.getInstance();
+        if (holder.getDevices() == null) {
+            holder.setDevices(DeviceRegistry.builtIn(getString(R.string.show_home), getString(R.string.show_garage),
+                    getString(R.string.show_kitchen), getString(R.string.lights), getString(R.string.bell)));
+        }
+        showDevices(holder.getDevices());
+        holder.withCore(core -> {
+            core.setNativeVideoWindowId(remoteVideoView);
+            showRegistrationState(holder.getRegistrationState());
+        });
+
         prefs = getSharedPreferences(MQTT_CREDENTIALS, MODE_PRIVATE);
         String user = prefs.getString(MQTT_USER, null);
         String pass = prefs.getString(MQTT_PASS, null);
@@ -168,41 +223,42 @@ public class MainActivity extends AppCompatActivity implements Constants {
         sipUser = prefs.getString(SIP_USER, null);
         sipDomain = prefs.getString(SIP_DOMAIN, null);
         sipPassword = prefs.getString(SIP_PASS, null);
+        lazySip = prefs.getBoolean(LAZY_SIP, false);
+        StartupTrace.setLazySip(lazySip);
+        holder.setRecordingEnabled(prefs.getBoolean(RECORD_CALLS, false));
 
         Log.v(TAG, "MQTT credentials: user:" + user + " pass:" + pass + " domain:" + ipbroker);
         Log.v(TAG, "SIP credentials: user:" + sipUser + " pass:" + sipPassword + " domain:" + sipDomain);
 
         if (notEmpty(user) && notEmpty(pass) && notEmpty(ipbroker) &&
                 notEmpty(sipUser) && notEmpty(sipDomain) && notEmpty(sipPassword)) {
-            new Thread(() -> {
-                runOnUiThread(this::initLinphone);
-            }).start();
-            new Thread(() -> {
-                runOnUiThread(() -> {
-                    setupMQTT(user, pass, ipbroker);
-                });
-            }).start();
+            if (!lazySip) {
+                initLinphone();
+            }
+            setupMQTT(user, pass, ipbroker);
         } else {
             askForSIPandMQTTCredentials(false);
         }
+        holder.attach(mqttStatusListener, linphoneListener);
 
         //linphone actions
-        callHomeButton.setOnClickListener(v -> makeCall(HOME_USER));
-        callGarageButton.setOnClickListener(v -> makeCall(GARAGE_USER));
-        callKitchenButton.setOnClickListener(v -> makeCall(KITCHEN_USER));
         hangupButton.setOnClickListener(v -> hangUp());
+        toggleContainer.setVisibility(View.GONE);
 
-        //mqtt actions
-        lightListener = (btn, isChecked) -> {
-            setLightTo(isChecked);
-        };
-        switchLight.setOnCheckedChangeListener(lightListener);
+        StartupTrace.mark(StartupTrace.Mark.ACTIVITY_CREATED);
+        Trace.endSection();
+    }
 
-        bellListener = (btn, isChecked) -> {
-            setBellTo(isChecked);
-        };
-        switchBell.setOnCheckedChangeListener(bellListener);
-        toggleContainer.setVisibility(View.GONE);
+    private void markFirstFrame() {
+        View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.mark(StartupTrace.Mark.FIRST_FRAME);
+                return true;
+            }
+        });
     }
 
     private boolean checkPermissions() {
@@ -226,70 +282,34 @@ public class MainActivity extends AppCompatActivity implements Constants {
                     return;
                 }
             }
-            initLinphone();
+            //the core may have been started before the permissions were granted
+            ConnectionHolder.getInstance().stopLinphone();
+            if (!lazySip) {
+                initLinphone();
+            }
         }
     }
 
     private void initLinphone() {
-        try {
-            destroyLinphone();
-
-            Config c = Factory.instance().createConfig(null);
-            c.setInt("sip", "inc_timeout", 600);
-            c.setInt("sip", "keepalive_period", 30000);
-
-            linphoneCore = Factory.instance().createCoreWithConfig(c, this);
-
-            linphoneCore.setVideoDisplayEnabled(true);
-            linphoneCore.setVideoCaptureEnabled(true);
-            linphoneCore.setVideoDevice("Camera");
-
-            linphoneCore.setNortpTimeout(600);
-            linphoneCore.setUploadBandwidth(0);
-            linphoneCore.setDownloadBandwidth(0);
-            linphoneCore.setForcedIceRelayEnabled(false);
-            linphoneCore.setAdaptiveRateControlEnabled(true);
-            linphoneCore.setKeepAliveEnabled(true);
-
-            for (PayloadType pt : linphoneCore.getVideoPayloadTypes()) {
-                if ("H264".equals(pt.getMimeType())) {
-                    pt.enable(true);
+        ConnectionHolder holder = ConnectionHolder.getInstance();
+        holder.startLinphone(this, sipUser, sipPassword, sipDomain, new ConnectionHolder.LinphoneReadyListener() {
+            @Override
+            public void onLinphoneReady() {
+                if (isDestroyed()) {
+                    return;
                 }
+                holder.withCore(core -> core.setNativeVideoWindowId(remoteVideoView));
+                showRegistrationState(holder.getRegistrationState());
             }
 
-            linphoneCore.setNativeVideoWindowId(remoteVideoView);
-            linphoneCore.addListener(new LinphoneListener());
-
-            AuthInfo user = Factory.instance().createAuthInfo(sipUser, null, sipPassword, null, null, sipDomain, null);
-            AccountParams accountParams = linphoneCore.createAccountParams();
-            String sipAddress = "sip:" + sipUser + "@" + sipDomain;
-            Address identity = Factory.instance().createAddress(sipAddress);
-            if(identity != null) {
-                Log.v(TAG, "login for address " + sipAddress);
-                accountParams.setIdentityAddress(identity);
-                Address address = Factory.instance().createAddress("sip:" + sipDomain);
-                if(address != null) {
-                    address.setTransport(TransportType.Udp);
-                    accountParams.setServerAddress(address);
-                    accountParams.setRegisterEnabled(true);
+            @Override
+            public void onLinphoneFailed(Exception e) {
+                if (!isDestroyed()) {
+                    Toast.makeText(MainActivity.this, getString(R.string.linphone_init_error) + e.getMessage(),
+                            Toast.LENGTH_LONG).show();
                 }
-                Account account = linphoneCore.createAccount(accountParams);
-                linphoneCore.addAuthInfo(user);
-                linphoneCore.addAccount(account);
-                linphoneCore.setDefaultAccount(account);
-                linphoneCore.setForcedIceRelayEnabled(true);
-
-            } else {
-                Log.e(TAG, "cannot set identity for linphone:" + sipAddress);
             }
-            linphoneCore.setUserAgent(TAG, "1.0");
-
-            linphoneCore.start();
-
-        } catch (Exception e) {
-            Log.e(TAG, "linphone error:" + e);
-            Toast.makeText(this, getString(R.string.linphone_init_error) + e.getMessage(), Toast.LENGTH_LONG).show();
-        }
+        });
     }
 
     private void makeCall(String user) {
@@ -298,97 +318,147 @@ public class MainActivity extends AppCompatActivity implements Constants {
             return;
         }
 
-        if (linphoneConnected != RegistrationState.Ok) {
-            alert = new AlertDialog.Builder(this)
-                    .setTitle(getString(R.string.error))
-                    .setMessage(getString(R.string.sip_not_connected))
-                    .setPositiveButton(getString(R.string.ok), (dialog, which) -> {
-                        alert.dismiss();
-                    })
-                    .show();
+        if(!notEmpty(user)) {
+            Log.e(TAG, "invalid user for call");
             return;
         }
 
-        if(!notEmpty(user)) {
-            Log.e(TAG, "invalid user for call");
+        if (lazySip && linphoneConnected != RegistrationState.Ok) {
+            //the call goes out once the registration is done, see showRegistrationState()
+            Log.v(TAG, "starting SIP for a call to " + user);
+            pendingCallUser = user;
+            setSipStatus(CONN_PROGRESS);
+            initLinphone();
             return;
         }
 
-        try {
-            CallParams params = linphoneCore.createCallParams(null);
-            Objects.requireNonNull(params).setCameraEnabled(true);
-            params.setAudioEnabled(true);
-            params.setVideoEnabled(true);
-
-            params.setAvpfEnabled(false);
-
-            AudioDevice[] AudioDevices = linphoneCore.getExtendedAudioDevices();
-            for(AudioDevice audioDevice : AudioDevices) {
-                Log.i(TAG, "deviceName：" + audioDevice.getDeviceName() + ", driverName：" + audioDevice.getDriverName() +
-                        ", id：" + audioDevice.getId() + ", type：" + audioDevice.getType() + ", capabilities：" + audioDevice.getCapabilities());
-                if(audioDevice.getType()==AudioDevice.Type.Speaker) {
-                    Log.i(TAG, "set output to speaker");
-                    params.setOutputAudioDevice(audioDevice);
-                    break;
+        if (linphoneConnected != RegistrationState.Ok) {
+            showSIPNotConnected();
+            return;
+        }
+
+        long tapped = SystemClock.elapsedRealtime();
+        ConnectionHolder holder = ConnectionHolder.getInstance();
+        holder.callStarted(user);
+        remoteVideoView.setOnNextFrameListener(holder::firstVideoFrame);
+        holder.withCore(core -> {
+            try {
+                //params, speaker and addresses are prepared when the Core starts
+                CallSetupCache setup = Objects.requireNonNull(holder.getCallSetup());
+                CallParams params = setup.callParams();
+                Address address = setup.address(user);
+                if(address == null) {
+                    runOnUiThread(() -> Toast.makeText(this, getString(R.string.linphone_connection_error) + "Invalid user", Toast.LENGTH_SHORT).show());
+                    return;
                 }
-            }
+                holder.prepareCall(core, Objects.requireNonNull(params), user);
+                core.inviteAddressWithParams(address, params);
+                Log.v(TAG, "INVITE to " + user + " sent " + (SystemClock.elapsedRealtime() - tapped) + " ms after the tap");
 
-            Address address = Factory.instance().createAddress("sip:" + user + "@" + sipDomain);
-            if(address == null) {
-                Toast.makeText(this, getString(R.string.linphone_connection_error) + "Invalid user", Toast.LENGTH_SHORT).show();
-                return;
+                runOnUiThread(() -> {
+                    callButtons.setVisibility(View.GONE);
+                    hangupButton.setVisibility(View.VISIBLE);
+                });
+
+            } catch (Exception e) {
+                Log.e(TAG, "linphone error:" + e);
+                runOnUiThread(() -> {
+                    Toast.makeText(this, getString(R.string.linphone_connection_error) + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    setAutoControls(ConnectionHolder.getInstance().getDevices().get(user), false);
+                });
             }
-            linphoneCore.inviteAddressWithParams(Objects.requireNonNull(address), params);
+        });
+    }
 
-            callGarageButton.setVisibility(View.GONE);
-            callHomeButton.setVisibility(View.GONE);
-            callKitchenButton.setVisibility(View.GONE);
+    private void hangUp() {
+        if (cameraGrid != null) {
+            closeGrid();
+            return;
+        }
+        ConnectionHolder.getInstance().withCore(core -> {
+            Call call = core.getCurrentCall();
+            if (call != null) {
+                String remoteUser = remoteUser(call);
+                call.terminate();
+                runOnUiThread(() -> manageMQTTSwitchesVisibility(remoteUser, false));
+            }
+        });
+        callButtons.setVisibility(View.VISIBLE);
+        hangupButton.setVisibility(View.GONE);
 
-            hangupButton.setVisibility(View.VISIBLE);
+        toggleContainer.setVisibility(View.GONE);
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "linphone error:" + e);
-            Toast.makeText(this, getString(R.string.linphone_connection_error) + e.getMessage(), Toast.LENGTH_SHORT).show();
-            setLightTo(false);
+    private void openGrid() {
+        if (!networkMonitor.isConnected()) {
+            handleNoNetwork();
+            return;
         }
-    }
+        if (lazySip && linphoneConnected != RegistrationState.Ok) {
+            Log.v(TAG, "starting SIP for the camera grid");
+            pendingGrid = true;
+            setSipStatus(CONN_PROGRESS);
+            initLinphone();
+            return;
+        }
+        if (linphoneConnected != RegistrationState.Ok) {
+            showSIPNotConnected();
+            return;
+        }
+        if (cameraGrid != null) {
+            return;
+        }
+        cameraGrid = new CameraGrid(this, gridContainer, networkMonitor, new CameraGrid.GridListener() {
+            @Override
+            public void onTileSelected(String previous, String device) {
+                manageMQTTSwitchesVisibility(previous, false);
+                manageMQTTSwitchesVisibility(device, true);
+            }
 
-    void linphoneLogout() {
-        Account account = linphoneCore.getDefaultAccount();
-        if(account != null) {
-            AccountParams accountParams = account.getParams().clone();
-            accountParams.setRegisterEnabled(false);
-            account.setParams(accountParams);
+            @Override
+            public void onGridEmpty() {
+                closeGrid();
+            }
+        });
+        callButtons.setVisibility(View.GONE);
+        hangupButton.setVisibility(View.VISIBLE);
+        List<String> users = new ArrayList<>();
+        for (DeviceRegistry.Device d : ConnectionHolder.getInstance().getDevices().devices()) {
+            users.add(d.sipUser);
         }
+        cameraGrid.open(users);
+        manageMQTTSwitchesVisibility(cameraGrid.getSelected(), true);
     }
 
-    private void hangUp() {
-        Call call = linphoneCore.getCurrentCall();
-        if (call != null) {
-            manageMQTTSwitchesVisibility(call, false);
-            call.terminate();
-        }
-        callHomeButton.setVisibility(View.VISIBLE);
-        callGarageButton.setVisibility(View.VISIBLE);
-        callKitchenButton.setVisibility(View.VISIBLE);
+    private void closeGrid() {
+        if (cameraGrid == null) {
+            return;
+        }
+        manageMQTTSwitchesVisibility(cameraGrid.getSelected(), false);
+        cameraGrid.close();
+        cameraGrid = null;
+        callButtons.setVisibility(View.VISIBLE);
         hangupButton.setVisibility(View.GONE);
-
         toggleContainer.setVisibility(View.GONE);
     }
 
-    void destroyLinphone() {
-        try {
-            if (linphoneCore != null) {
-                linphoneCore.terminateAllCalls();
-                linphoneLogout();
-                linphoneCore.stop();
-                linphoneCore = null;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "linphone error:" + e);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (cameraGrid != null) {
+            cameraGrid.setForeground(true);
         }
     }
 
+    @Override
+    protected void onStop() {
+        //no one watches the tiles, they are held until the grid is back on screen
+        if (cameraGrid != null) {
+            cameraGrid.setForeground(false);
+        }
+        super.onStop();
+    }
+
     @Override
     public void onConfigurationChanged(@NonNull Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -402,8 +472,13 @@ public class MainActivity extends AppCompatActivity implements Constants {
     @Override
     public void onDestroy() {
 
-        destroyLinphone();
-        destroyMQTT();
+        //the connections stay in ConnectionHolder for the next Activity instance
+        if (cameraGrid != null) {
+            cameraGrid.close();
+            cameraGrid = null;
+        }
+        detachMQTT();
+        ConnectionHolder.getInstance().detach();
 
         try {
             networkMonitor.stopMonitoring();
@@ -414,10 +489,18 @@ public class MainActivity extends AppCompatActivity implements Constants {
         super.onDestroy();
     }
 
-    public class LinphoneListener extends CoreListenerStub {
-        @Override
-        public void onRegistrationStateChanged(@NonNull Core core, @NonNull ProxyConfig proxyConfig, RegistrationState state, @NonNull String message) {
-            Log.v(TAG, message);
+    private void showSIPNotConnected() {
+        alert = new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.error))
+                .setMessage(getString(R.string.sip_not_connected))
+                .setPositiveButton(getString(R.string.ok), (dialog, which) -> {
+                    alert.dismiss();
+                })
+                .show();
+    }
+
+    void showRegistrationState(RegistrationState state) {
+        runOnUiThread(() -> {
             linphoneConnected = state;
             switch(linphoneConnected) {
                 case Progress:
@@ -430,115 +513,259 @@ public class MainActivity extends AppCompatActivity implements Constants {
                     setSipStatus(CONN_NONE);
                     break;
             }
+            callPendingUser(state);
+        });
+    }
+
+    private void callPendingUser(RegistrationState state) {
+        if (pendingGrid && !isDestroyed()) {
+            if (state == RegistrationState.Ok) {
+                pendingGrid = false;
+                openGrid();
+            } else if (state == RegistrationState.Failed) {
+                pendingGrid = false;
+                showSIPNotConnected();
+            }
+        }
+        if (pendingCallUser == null || isDestroyed()) {
+            return;
+        }
+        String user = pendingCallUser;
+        if (state == RegistrationState.Ok) {
+            pendingCallUser = null;
+            makeCall(user);
+        } else if (state == RegistrationState.Failed) {
+            pendingCallUser = null;
+            showSIPNotConnected();
+        }
+    }
+
+    //lazy mode: the visitor is likely to be called back, register in the meantime
+    private void doorbellRang() {
+        if (lazySip && linphoneConnected != RegistrationState.Ok && notEmpty(sipUser)) {
+            Log.v(TAG, "doorbell, starting SIP");
+            initLinphone();
+        }
+    }
+
+    //Linphone thread only
+    static String remoteUser(Call call) {
+        return call != null ? call.getRemoteAddress().getUsername() : null;
+    }
+
+    public class LinphoneListener extends CoreListenerStub {
+        @Override
+        public void onRegistrationStateChanged(@NonNull Core core, @NonNull ProxyConfig proxyConfig, RegistrationState state, @NonNull String message) {
+            Log.v(TAG, message);
+            showRegistrationState(state);
         }
 
         @Override
         public void onCallStateChanged(@NonNull Core core, @NonNull Call call, Call.State state, @NonNull String message) {
+            String remoteUser = remoteUser(call);
             runOnUiThread(() -> {
+                //the tiles are handled by the grid itself
+                if (cameraGrid != null) {
+                    return;
+                }
                 switch (state) {
                     case Connected:
                         videoContainer.setVisibility(View.VISIBLE);
-                        manageMQTTSwitchesVisibility(call, true);
+                        manageMQTTSwitchesVisibility(remoteUser, true);
                         break;
                     case End:
                     case Error:
                         if(state == Call.State.Error) {
                             Toast.makeText(MainActivity.this, getString(R.string.linphone_connection_end) + message, Toast.LENGTH_SHORT).show();
                         }
-                        callHomeButton.setVisibility(View.VISIBLE);
-                        callGarageButton.setVisibility(View.VISIBLE);
-                        callKitchenButton.setVisibility(View.VISIBLE);
+                        callButtons.setVisibility(View.VISIBLE);
                         hangupButton.setVisibility(View.GONE);
                         remoteVideoView.resetToFitCenter(false);
                         videoContainer.setVisibility(View.GONE);
 
-                        manageMQTTSwitchesVisibility(call, false);
+                        manageMQTTSwitchesVisibility(remoteUser, false);
                         break;
                 }
             });
         }
     }
 
-    void setupMQTT(String user, String pass, String ipbroker) {
-        if((mqttClient != null && mqttClient.isConnected())) {
-            Log.v(TAG, "MQTT client already connected and active");
-            return;
+    private final MQTTClient.MQTTStatusListener mqttStatusListener = new MQTTClient.MQTTStatusListener() {
+        @Override
+        public void onConnected() {
+            setMQTTStatus(CONN_OK);
+            ConnectionHolder holder = ConnectionHolder.getInstance();
+            holder.runOnLinphoneThread(() -> {
+                Core core = holder.getLinphoneCore();
+                String remoteUser = core != null ? remoteUser(core.getCurrentCall()) : null;
+                runOnUiThread(() -> manageMQTTSwitchesVisibility(remoteUser, true));
+            });
         }
 
-        mqttClient = new MQTTClient(
-            this,
-            ipbroker,
-            user, pass,
-            (topic, message) -> runOnUiThread(() -> {
-                updateSwitchesFromBroker(topic, message);
-            }),
-            new MQTTClient.MQTTStatusListener() {
-                @Override
-                public void onConnected() {
-                    setMQTTStatus(CONN_OK);
-                    runOnUiThread(() -> {
-                        Call c = null;
-                        if(linphoneCore != null) {
-                            c = linphoneCore.getCurrentCall();
-                        }
-                        manageMQTTSwitchesVisibility(c, true);
-                        if(mqttClient != null) {
-                            mqttClient.subscribeTo(MQTT_LIGHTS_TOPIC);
-                            mqttClient.subscribeTo(MQTT_BELL_TOPIC);
-                        }
-                    });
-                }
+        @Override
+        public void onProgress() {
+            if(mqttClient != null && !mqttClient.isConnected()) {
+                setMQTTStatus(CONN_PROGRESS);
+            }
+        }
 
-                @Override
-                public void onProgress() {
-                    if(mqttClient != null && !mqttClient.isConnected()) {
-                        setMQTTStatus(CONN_PROGRESS);
-                    }
-                }
+        @Override
+        public void onDisconnected() {
+            setMQTTStatus(CONN_NONE);
+            runOnUiThread(() -> {
+                toggleContainer.setVisibility(View.GONE);
+            });
+        }
 
-                @Override
-                public void onDisconnected() {
-                    setMQTTStatus(CONN_NONE);
-                    runOnUiThread(() -> {
-                        toggleContainer.setVisibility(View.GONE);
-                    });
-                }
+        @Override
+        public void onConnectionFailed(String reason) {
+            setMQTTStatus(CONN_NONE);
+            runOnUiThread(() -> {
+                Toast.makeText(MainActivity.this, reason, Toast.LENGTH_SHORT).show();
+            });
+        }
+    };
 
-                @Override
-                public void onConnectionFailed(String reason) {
-                    setMQTTStatus(CONN_NONE);
-                    runOnUiThread(() -> {
-                        Toast.makeText(MainActivity.this, reason, Toast.LENGTH_SHORT).show();
-                    });
+    void setupMQTT(String user, String pass, String ipbroker) {
+        ConnectionHolder.getInstance().setKeepAliveProbing(prefs.getBoolean(KEEPALIVE_PROBING, false));
+        MQTTClient client = ConnectionHolder.getInstance().startMQTT(this, ipbroker, user, pass,
+                prefs.getBoolean(MQTT_V5, false));
+        if (client == mqttClient) {
+            Log.v(TAG, "MQTT client already set up");
+            return;
+        }
+        detachMQTT();
+        mqttClient = client;
+
+        //on/off states are retained and idempotent, a duplicate delivery is harmless
+        controlHandler = (topic, message) -> runOnUiThread(() -> {
+            SwitchCompat sw = switches.get(topic);
+            if (sw != null) {
+                updateSwitchFromBroker(sw, switchListener, topic, message);
+            }
+        });
+        devicesHandler = (topic, message) -> {
+            String config = new String(message.getPayload(), StandardCharsets.UTF_8);
+            runOnUiThread(() -> devicesPublished(config));
+        };
+        //a retained ring would start SIP on every launch, only live ones count
+        doorbellHandler = (topic, message) -> {
+            if (!message.isRetained()) {
+                runOnUiThread(this::doorbellRang);
+            }
+        };
+        mqttClient.addTopicHandler(MQTT_DEVICES_TOPIC, devicesHandler);
+        mqttClient.addTopicHandler(MQTT_DOORBELL_TOPIC, doorbellHandler);
+        //subscribed once, MQTTClient keeps them across reconnects
+        mqttClient.subscribeTo(MQTT_DEVICES_TOPIC, 1);
+        mqttClient.subscribeTo(MQTT_DOORBELL_TOPIC, 0);
+        //the device list of the previous run, the broker sends the current one after connecting
+        MqttMessage devices = mqttClient.getLastKnownValue(MQTT_DEVICES_TOPIC);
+        if (devices != null) {
+            devicesPublished(new String(devices.getPayload(), StandardCharsets.UTF_8));
+        }
+        subscribeControls(ConnectionHolder.getInstance().getDevices());
+    }
+
+    //topics of devices gone from the list stay subscribed until the Activity detaches
+    private void subscribeControls(DeviceRegistry registry) {
+        for (DeviceRegistry.Device d : registry.devices()) {
+            for (DeviceRegistry.Control c : d.controls) {
+                if (controlTopics.add(c.topic)) {
+                    mqttClient.setTopicQos(c.topic, 1);
+                    mqttClient.addTopicHandler(c.topic, controlHandler);
+                    mqttClient.subscribeTo(c.topic, 1);
                 }
-            });
+            }
+        }
+    }
+
+    private void devicesPublished(String config) {
+        ConnectionHolder holder = ConnectionHolder.getInstance();
+        DeviceRegistry current = holder.getDevices();
+        //the retained list comes again with every reconnect
+        if (current != null && current.sameSource(config)) {
+            return;
+        }
+        DeviceRegistry registry = DeviceRegistry.parse(config);
+        if (registry == null) {
+            Log.e(TAG, "device list without a valid device, ignored");
+            return;
+        }
+        Log.v(TAG, "device list: " + registry.devices().size() + " devices");
+        holder.setDevices(registry);
+        showDevices(registry);
+        if (mqttClient != null) {
+            subscribeControls(registry);
+        }
     }
 
-    void destroyMQTT() {
-        Log.v(TAG, "destroy MQTT client");
+    private void showDevices(DeviceRegistry registry) {
+        callButtons.removeAllViews();
+        for (DeviceRegistry.Device d : registry.devices()) {
+            addCallButton(d.name, v -> makeCall(d.sipUser));
+        }
+        if (registry.devices().size() > 1) {
+            addCallButton(getString(R.string.show_grid), v -> openGrid());
+        }
+        addCallButton(getString(R.string.recordings),
+                v -> startActivity(new Intent(this, RecordingsActivity.class)));
+    }
 
-        try {
-            switchLight.setOnCheckedChangeListener(null);
-            switchBell.setOnCheckedChangeListener(null);
+    private void addCallButton(String text, View.OnClickListener listener) {
+        int margin = (int) (15 * getResources().getDisplayMetrics().density);
+        Button button = new Button(this, null, android.R.attr.buttonStyleSmall);
+        button.setText(text);
+        button.setOnClickListener(listener);
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.setMarginStart(margin);
+        params.setMarginEnd(margin);
+        callButtons.addView(button, params);
+    }
 
-            if(mqttClient != null) {
-                mqttClient.stop();
-                mqttClient = null;
+    //state from the previous run, shown dimmed until the broker confirms it
+    void showLastKnownState(SwitchCompat sw, CompoundButton.OnCheckedChangeListener listener, String topic) {
+        MqttMessage last = mqttClient.getLastKnownValue(topic);
+        if (last != null) {
+            Log.v(TAG, "last known " + topic + ", age:" +
+                    (System.currentTimeMillis() - mqttClient.getLastKnownValueTime(topic)) + "ms");
+            updateSwitchFromBroker(sw, listener, topic, last);
+            if (mqttClient.isLastKnownValueStale(topic)) {
+                sw.setAlpha(STALE_STATE_ALPHA);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "linphone error:" + e);
         }
     }
 
-    void setLightTo(boolean isOn) {
+    //the client itself is owned by ConnectionHolder, only this Activity's handlers go away
+    void detachMQTT() {
         if(mqttClient != null) {
-            mqttClient.publish(MQTT_LIGHTS_TOPIC, isOn ? MQTT_ON : MQTT_OFF, true, () -> { });
+            Log.v(TAG, "detach from MQTT client");
+            for (String topic : controlTopics) {
+                mqttClient.removeTopicHandler(topic, controlHandler);
+            }
+            controlTopics.clear();
+            mqttClient.removeTopicHandler(MQTT_DEVICES_TOPIC, devicesHandler);
+            mqttClient.removeTopicHandler(MQTT_DOORBELL_TOPIC, doorbellHandler);
+            mqttClient = null;
         }
     }
 
-    void setBellTo(boolean isOn) {
+    void setControlTo(String topic, boolean isOn) {
         if(mqttClient != null) {
-            mqttClient.publish(MQTT_BELL_TOPIC, isOn ? MQTT_ON : MQTT_OFF, true, () -> {  });
+            mqttClient.publish(topic, isOn ? MQTT_ON : MQTT_OFF, true, () -> { });
+        }
+    }
+
+    //the switches a device turns on for the time of a call
+    void setAutoControls(DeviceRegistry.Device device, boolean isOn) {
+        if (device == null) {
+            return;
+        }
+        for (DeviceRegistry.Control c : device.controls) {
+            if (c.auto) {
+                setControlTo(c.topic, isOn);
+            }
         }
     }
 
@@ -582,6 +809,22 @@ public class MainActivity extends AppCompatActivity implements Constants {
         inputSIPPass.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
         layout.addView(inputSIPPass);
 
+        final CheckBox mqtt5 = new CheckBox(this);
+        mqtt5.setText(getString(R.string.mqtt_v5));
+        layout.addView(mqtt5);
+
+        final CheckBox keepAliveProbing = new CheckBox(this);
+        keepAliveProbing.setText(getString(R.string.keepalive_probing));
+        layout.addView(keepAliveProbing);
+
+        final CheckBox lazySipMode = new CheckBox(this);
+        lazySipMode.setText(getString(R.string.lazy_sip));
+        layout.addView(lazySipMode);
+
+        final CheckBox recordCalls = new CheckBox(this);
+        recordCalls.setText(getString(R.string.record_calls));
+        layout.addView(recordCalls);
+
         if(autofill) {
             autoFillWidget(inputUser, MQTT_USER);
             autoFillWidget(inputPass, MQTT_PASS);
@@ -589,6 +832,10 @@ public class MainActivity extends AppCompatActivity implements Constants {
             autoFillWidget(inputSIPUser, SIP_USER);
             autoFillWidget(inputSIPDomain, SIP_DOMAIN);
             autoFillWidget(inputSIPPass, SIP_PASS);
+            mqtt5.setChecked(prefs.getBoolean(MQTT_V5, false));
+            keepAliveProbing.setChecked(prefs.getBoolean(KEEPALIVE_PROBING, false));
+            lazySipMode.setChecked(prefs.getBoolean(LAZY_SIP, false));
+            recordCalls.setChecked(prefs.getBoolean(RECORD_CALLS, false));
         }
 
         builder.setView(layout);
@@ -607,16 +854,18 @@ public class MainActivity extends AppCompatActivity implements Constants {
                     .putString(SIP_USER, sipUser)
                     .putString(SIP_PASS, sipPassword)
                     .putString(SIP_DOMAIN, sipDomain)
+                    .putBoolean(MQTT_V5, mqtt5.isChecked())
+                    .putBoolean(KEEPALIVE_PROBING, keepAliveProbing.isChecked())
+                    .putBoolean(LAZY_SIP, lazySipMode.isChecked())
+                    .putBoolean(RECORD_CALLS, recordCalls.isChecked())
                     .apply();
+            ConnectionHolder.getInstance().setRecordingEnabled(recordCalls.isChecked());
 
-            new Thread(() -> {
-                runOnUiThread(this::initLinphone);
-            }).start();
-            new Thread(() -> {
-                runOnUiThread(() -> {
-                    setupMQTT(user, pass, broker);
-                });
-            }).start();
+            lazySip = lazySipMode.isChecked();
+            if (!lazySip) {
+                initLinphone();
+            }
+            setupMQTT(user, pass, broker);
 
         });
 
@@ -624,53 +873,87 @@ public class MainActivity extends AppCompatActivity implements Constants {
         builder.show();
     }
 
-    void manageMQTTSwitchesVisibility(Call call, boolean state) {
+    void manageMQTTSwitchesVisibility(String remoteUser, boolean state) {
         try {
-            if(call != null) {
-                Log.v(TAG, "remote address:" + call.getRemoteAddress().getUsername());
-                if(Objects.requireNonNull(call.getRemoteAddress().getUsername()).equalsIgnoreCase(GARAGE_USER)) {
-                    if(state) {
-                        setLightTo(true);
-                        toggleContainer.setVisibility(View.VISIBLE);
-                    } else {
-                        setLightTo(false);
-                        toggleContainer.setVisibility(View.GONE);
-                    }
+            DeviceRegistry registry = ConnectionHolder.getInstance().getDevices();
+            if(remoteUser != null) {
+                Log.v(TAG, "remote address:" + remoteUser);
+                DeviceRegistry.Device device = registry.get(remoteUser);
+                if(device == null || device.controls.isEmpty()) {
+                    return;
+                }
+                setAutoControls(device, state);
+                if(state) {
+                    showSwitches(device);
+                } else if(switchesDevice != null && switchesDevice.sipUser.equals(device.sipUser)) {
+                    hideSwitches();
                 }
             } else {
-                setLightTo(false);
-                toggleContainer.setVisibility(View.GONE);
+                //no call, nothing stays switched on for one
+                for (DeviceRegistry.Device d : registry.devices()) {
+                    setAutoControls(d, false);
+                }
+                hideSwitches();
             }
         } catch (Exception e) {
             Log.e(TAG, "stwitches visibility problem: " + e);
         }
     }
 
-    void updateSwitchesFromBroker(String topic, MqttMessage message) {
+    private void showSwitches(DeviceRegistry.Device device) {
+        hideSwitches();
+        int margin = (int) (15 * getResources().getDisplayMetrics().density);
+        for (DeviceRegistry.Control c : device.controls) {
+            LinearLayout column = new LinearLayout(this);
+            column.setOrientation(LinearLayout.VERTICAL);
+            column.setGravity(Gravity.CENTER_HORIZONTAL);
+
+            SwitchCompat sw = new SwitchCompat(this);
+            sw.setTag(c.topic);
+            sw.setOnCheckedChangeListener(switchListener);
+            column.addView(sw);
+
+            TextView label = new TextView(this);
+            label.setText(c.label);
+            label.setTextColor(Color.WHITE);
+            column.addView(label);
+
+            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+            params.setMarginEnd(margin);
+            toggleContainer.addView(column, params);
+            switches.put(c.topic, sw);
+            if (mqttClient != null) {
+                showLastKnownState(sw, switchListener, c.topic);
+            }
+        }
+        switchesDevice = device;
+        toggleContainer.setVisibility(View.VISIBLE);
+    }
+
+    private void hideSwitches() {
+        toggleContainer.setVisibility(View.GONE);
+        toggleContainer.removeAllViews();
+        switches.clear();
+        switchesDevice = null;
+    }
+
+    void updateSwitchFromBroker(SwitchCompat sw, CompoundButton.OnCheckedChangeListener listener,
+                                String topic, MqttMessage message) {
         try {
             Log.v(TAG, "Broker update: " + topic + " message:" + message.toString());
 
-            boolean isOn = new String(message.getPayload()).equalsIgnoreCase(MQTT_ON);
-            if (topic.equals(MQTT_LIGHTS_TOPIC)) {
-                if(switchLight.isChecked() != isOn) {
-                    Log.v(TAG, "set lights to:" + isOn);
-
-                    switchLight.setOnCheckedChangeListener(null);
-                    switchLight.setChecked(isOn);
-                    switchLight.setOnCheckedChangeListener(lightListener);
-                }
-            }
-            if (topic.equals(MQTT_BELL_TOPIC)) {
-                if(switchBell.isChecked() != isOn) {
-                    Log.v(TAG, "set bell to:" + isOn);
+            boolean isOn = MQTTPayloads.isOn(message.getPayload());
+            sw.setAlpha(1.0f);
+            if(sw.isChecked() != isOn) {
+                Log.v(TAG, "set " + topic + " to:" + isOn);
 
-                    switchBell.setOnCheckedChangeListener(null);
-                    switchBell.setChecked(isOn);
-                    switchBell.setOnCheckedChangeListener(bellListener);
-                }
+                sw.setOnCheckedChangeListener(null);
+                sw.setChecked(isOn);
+                sw.setOnCheckedChangeListener(listener);
             }
         } catch (Exception e) {
             Log.e(TAG, "update switches from broker problem:" + e);
         }
     }
-}
\ No newline at end of file
+}
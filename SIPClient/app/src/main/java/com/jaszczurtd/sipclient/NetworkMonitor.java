@@ -2,60 +2,205 @@ package com.jaszczurtd.sipclient;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkCapabilities;
-import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+/**
+ * Follows the default network of the app, which is the VPN while a tunnel is up.
+ * Raw callbacks are settled for DEBOUNCE_MS, so the lost/available pair of a Wi-Fi to
+ * LTE handover or a flapping link is reported once. Listeners are called on the main thread.
+ */
 public class NetworkMonitor implements Constants{
 
+    static final long DEBOUNCE_MS = 300;
+
     private final ConnectivityManager connectivityManager;
     private final ConnectivityManager.NetworkCallback networkCallback;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable settleTask = this::settle;
 
     private final NetworkStatusListener listener;
 
+    //default network as seen by the callbacks, main thread only
+    private Network network;
+    private NetworkCapabilities caps;
+    private LinkProperties link;
+
+    //last reported state
+    private boolean connected;
+    private Network reportedNetwork;
+    private boolean reportedVpn;
+    private String reportedLink = "";
+    private volatile Transport transport = Transport.NONE;
+    private volatile boolean metered;
+
     public interface NetworkStatusListener {
         void onConnected();
         void onDisconnected();
+        /** The default network was replaced while connected: handover, VPN up or down, new addresses. */
+        default void onNetworkChanged() { }
+        /** Transport or metering of the default network changed, reported before the other events. */
+        default void onTransportChanged(Transport transport, boolean metered) { }
     }
 
     public NetworkMonitor(Context context, NetworkStatusListener l) {
         connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         listener = l;
 
+        //called on the connectivity thread, the state lives on the main thread
         networkCallback = new ConnectivityManager.NetworkCallback() {
             @Override
-            public void onAvailable(@NonNull Network network) {
-                Log.v(TAG, "Internet connection is available");
-                listener.onConnected();
+            public void onAvailable(@NonNull Network n) {
+                NetworkCapabilities c = connectivityManager.getNetworkCapabilities(n);
+                LinkProperties lp = connectivityManager.getLinkProperties(n);
+                handler.post(() -> {
+                    network = n;
+                    caps = c;
+                    link = lp;
+                    scheduleSettle();
+                });
             }
 
             @Override
-            public void onLost(@NonNull Network network) {
-                Log.d(TAG, "Internet connection is not available");
-                listener.onDisconnected();
+            public void onCapabilitiesChanged(@NonNull Network n, @NonNull NetworkCapabilities c) {
+                handler.post(() -> {
+                    network = n;
+                    caps = c;
+                    scheduleSettle();
+                });
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(@NonNull Network n, @NonNull LinkProperties lp) {
+                handler.post(() -> {
+                    network = n;
+                    link = lp;
+                    scheduleSettle();
+                });
+            }
+
+            @Override
+            public void onLost(@NonNull Network n) {
+                handler.post(() -> {
+                    if (n.equals(network)) {
+                        network = null;
+                        caps = null;
+                        link = null;
+                    }
+                    scheduleSettle();
+                });
             }
         };
     }
 
     public void startMonitoring() {
-        NetworkRequest request = new NetworkRequest.Builder().build();
-        connectivityManager.registerNetworkCallback(request, networkCallback);
+        network = connectivityManager.getActiveNetwork();
+        caps = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+        link = network != null ? connectivityManager.getLinkProperties(network) : null;
+        connected = isUsable(caps);
+        reportedNetwork = connected ? network : null;
+        reportedVpn = connected && caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN);
+        reportedLink = linkKey(link);
+        transport = connected ? transportOf(caps) : Transport.NONE;
+        metered = connected && isMetered(caps);
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    private void scheduleSettle() {
+        handler.removeCallbacks(settleTask);
+        handler.postDelayed(settleTask, DEBOUNCE_MS);
+    }
+
+    private void settle() {
+        boolean nowConnected = network != null && isUsable(caps);
+        boolean vpn = nowConnected && caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN);
+        String key = linkKey(link);
+
+        Transport t = nowConnected ? transportOf(caps) : Transport.NONE;
+        boolean m = nowConnected && isMetered(caps);
+        if (t != transport || m != metered) {
+            transport = t;
+            metered = m;
+            Log.v(TAG, "network transport: " + t + (m ? " (metered)" : "") + (vpn ? " over VPN" : ""));
+            listener.onTransportChanged(t, m);
+        }
+
+        if (nowConnected != connected) {
+            connected = nowConnected;
+            if (nowConnected) {
+                Log.v(TAG, "Internet connection is available");
+                listener.onConnected();
+            } else {
+                Log.d(TAG, "Internet connection is not available");
+                listener.onDisconnected();
+            }
+        } else if (nowConnected && (!network.equals(reportedNetwork) || vpn != reportedVpn ||
+                !key.equals(reportedLink))) {
+            Log.v(TAG, "default network changed: " + network + (vpn ? " (VPN)" : "") + " " + key);
+            listener.onNetworkChanged();
+        }
+        reportedNetwork = nowConnected ? network : null;
+        reportedVpn = vpn;
+        reportedLink = key;
+    }
+
+    private static String linkKey(LinkProperties lp) {
+        return lp == null ? "" : lp.getInterfaceName() + lp.getLinkAddresses();
+    }
+
+    static boolean isUsable(NetworkCapabilities caps) {
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return false;
+        }
+        return caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) ||
+                caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) ||
+                caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) ||
+                caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN);
+    }
+
+    /** A VPN reports the transport it runs over when the system knows it, OTHER otherwise. */
+    static Transport transportOf(NetworkCapabilities caps) {
+        if (caps == null) {
+            return Transport.NONE;
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return Transport.CELLULAR;
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return Transport.WIFI;
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return Transport.ETHERNET;
+        }
+        return Transport.OTHER;
+    }
+
+    static boolean isMetered(NetworkCapabilities caps) {
+        return caps != null && !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    }
+
+    /** Transport of the default network, as last reported. */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public boolean isMetered() {
+        return metered;
     }
 
     /** @noinspection BooleanMethodIsAlwaysInverted*/
     public boolean isConnected() {
-        NetworkCapabilities caps = connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
-        if (caps != null) {
-            return caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) ||
-                    caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR);
-        }
-        return false;
+        return isUsable(connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork()));
     }
 
     public void stopMonitoring() {
+        handler.removeCallbacks(settleTask);
         connectivityManager.unregisterNetworkCallback(networkCallback);
     }
 }
@@ -0,0 +1,260 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recorded call segments in one directory, bounded by {@link #maxBytes} and {@link #maxAgeMs}
+ * with the oldest segments evicted first. An index file lists the segments, so listing and
+ * seeking never touch the recordings themselves. Segments left out of the index by a crash
+ * are taken in by {@link #load()}. Thread safe, segments are added on the Linphone thread
+ * while the recordings screen reads them.
+ */
+public final class RecordingStore {
+
+    static final String EXTENSION = ".mkv";
+    private static final String INDEX = "index.bin";
+    private static final int VERSION = 1;
+
+    /** One recorded file, a part of the call starting at {@link #offsetMs}. */
+    public static final class Segment {
+        public final long callStartedAt;
+        public final int number;
+        public final String device;
+        public final long offsetMs;
+        public final long durationMs;
+        public final long bytes;
+
+        public Segment(long callStartedAt, int number, String device, long offsetMs, long durationMs, long bytes) {
+            this.callStartedAt = callStartedAt;
+            this.number = number;
+            this.device = device;
+            this.offsetMs = offsetMs;
+            this.durationMs = durationMs;
+            this.bytes = bytes;
+        }
+
+        public boolean sameCall(Segment other) {
+            return callStartedAt == other.callStartedAt && device.equals(other.device);
+        }
+
+        String fileName() {
+            return RecordingStore.fileName(callStartedAt, number, device);
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    //oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    private long totalBytes;
+
+    public RecordingStore(File dir, long maxBytes, long maxAgeMs) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /** The device as it is kept in the index and in the file names. */
+    static String deviceOf(String sipUser) {
+        //only letters, digits and the like in file names
+        return (sipUser != null ? sipUser : "unknown").replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    static String fileName(long callStartedAt, int number, String device) {
+        return callStartedAt + "_" + number + "_" + device + EXTENSION;
+    }
+
+    public File fileOf(Segment s) {
+        return new File(dir, s.fileName());
+    }
+
+    /** Where a new segment of device is to be recorded, it counts once {@link #add}ed. */
+    synchronized File newSegmentFile(long callStartedAt, int number, String device) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        return new File(dir, fileName(callStartedAt, number, device));
+    }
+
+    synchronized void add(Segment s) {
+        segments.add(s);
+        totalBytes += s.bytes;
+    }
+
+    /** Deletes the oldest segments until the store is within its bounds, returns how many. */
+    synchronized int evict(long now) {
+        int evicted = 0;
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.get(0);
+            if (totalBytes <= maxBytes && now - (oldest.callStartedAt + oldest.offsetMs) <= maxAgeMs) {
+                break;
+            }
+            segments.remove(0);
+            totalBytes -= oldest.bytes;
+            File f = fileOf(oldest);
+            if (f.exists() && !f.delete()) {
+                //counted as gone anyway, load() retries it next time
+                continue;
+            }
+            evicted++;
+        }
+        return evicted;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Every segment, oldest first. */
+    public synchronized List<Segment> segments() {
+        return new ArrayList<>(segments);
+    }
+
+    /** First segment of every call, newest call first. */
+    public synchronized List<Segment> calls() {
+        List<Segment> calls = new ArrayList<>();
+        Segment last = null;
+        for (Segment s : segments) {
+            if (last == null || !s.sameCall(last)) {
+                calls.add(s);
+            }
+            last = s;
+        }
+        Collections.reverse(calls);
+        return calls;
+    }
+
+    /** Segments of the call of first, in order. */
+    public synchronized List<Segment> callOf(Segment first) {
+        List<Segment> call = new ArrayList<>();
+        for (Segment s : segments) {
+            if (s.sameCall(first)) {
+                call.add(s);
+            }
+        }
+        return call;
+    }
+
+    /** Index in call of the segment playing at positionMs, the last one past the end. */
+    public static int find(List<Segment> call, long positionMs) {
+        int low = 0, high = call.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (call.get(mid).offsetMs <= positionMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /** Length of a call, segments played back to back. */
+    public static long durationOf(List<Segment> call) {
+        if (call.isEmpty()) {
+            return 0;
+        }
+        Segment last = call.get(call.size() - 1);
+        return last.offsetMs + last.durationMs;
+    }
+
+    public synchronized void save() throws IOException {
+        File index = new File(dir, INDEX);
+        File tmp = new File(dir, INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(segments.size());
+            for (Segment s : segments) {
+                out.writeLong(s.callStartedAt);
+                out.writeInt(s.number);
+                out.writeUTF(s.device);
+                out.writeLong(s.offsetMs);
+                out.writeLong(s.durationMs);
+                out.writeLong(s.bytes);
+            }
+        }
+        //a crash while saving leaves the previous index
+        if (!tmp.renameTo(index)) {
+            throw new IOException("cannot replace " + index);
+        }
+    }
+
+    /**
+     * Reads the index, drops the segments whose files are gone and takes in the files
+     * it doesn't list, e.g. the segment being recorded when the app was killed.
+     */
+    public synchronized void load() throws IOException {
+        segments.clear();
+        totalBytes = 0;
+        File index = new File(dir, INDEX);
+        Set<String> listed = new HashSet<>();
+        if (index.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                if (in.readInt() == VERSION) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Segment s = new Segment(in.readLong(), in.readInt(), in.readUTF(),
+                                in.readLong(), in.readLong(), in.readLong());
+                        if (fileOf(s).exists()) {
+                            add(s);
+                            listed.add(s.fileName());
+                        }
+                    }
+                }
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        boolean adopted = false;
+        if (files != null) {
+            for (File f : files) {
+                if (!listed.contains(f.getName())) {
+                    Segment s = adopt(f);
+                    if (s != null) {
+                        add(s);
+                        adopted = true;
+                    }
+                }
+            }
+        }
+        if (adopted) {
+            Collections.sort(segments, (a, b) -> a.callStartedAt != b.callStartedAt ?
+                    Long.compare(a.callStartedAt, b.callStartedAt) : Integer.compare(a.number, b.number));
+        }
+    }
+
+    //the name gives the call and the number, the rest is estimated from the file
+    private Segment adopt(File f) {
+        String name = f.getName();
+        String[] parts = name.substring(0, name.length() - EXTENSION.length()).split("_", 3);
+        if (parts.length < 3) {
+            return null;
+        }
+        try {
+            long callStartedAt = Long.parseLong(parts[0]);
+            int number = Integer.parseInt(parts[1]);
+            long offsetMs = 0;
+            for (Segment s : segments) {
+                if (s.callStartedAt == callStartedAt && s.number < number) {
+                    offsetMs = Math.max(offsetMs, s.offsetMs + s.durationMs);
+                }
+            }
+            long durationMs = Math.max(0, f.lastModified() - callStartedAt - offsetMs);
+            return new Segment(callStartedAt, number, parts[2], offsetMs, durationMs, f.length());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
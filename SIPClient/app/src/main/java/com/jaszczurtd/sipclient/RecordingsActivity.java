@@ -0,0 +1,196 @@
+package com.jaszczurtd.sipclient;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.VideoView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recorded calls, newest first, listed from the {@link RecordingStore} index. A call is
+ * played one segment at a time, the seek bar spans the whole call and a seek opens
+ * only the segment it lands in.
+ */
+public class RecordingsActivity extends AppCompatActivity implements Constants {
+
+    private static final long PROGRESS_MS = 500;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private RecordingStore store;
+    private VideoView video;
+    private SeekBar seek;
+    private TextView position;
+    private ListView list;
+    private TextView summary;
+    private List<RecordingStore.Segment> call;
+    private int index;
+    //where to start in the segment once it is prepared
+    private int pendingSeek;
+
+    private final Runnable progress = new Runnable() {
+        @Override
+        public void run() {
+            if (call != null && video.isPlaying()) {
+                int ms = (int) (call.get(index).offsetMs + video.getCurrentPosition());
+                seek.setProgress(ms);
+                position.setText(time(ms) + " / " + time(RecordingStore.durationOf(call)));
+            }
+            handler.postDelayed(this, PROGRESS_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setTitle(getString(R.string.recordings));
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, padding);
+
+        video = new VideoView(this);
+        video.setOnPreparedListener(mp -> {
+            if (pendingSeek > 0) {
+                video.seekTo(pendingSeek);
+            }
+            video.start();
+        });
+        video.setOnCompletionListener(mp -> next());
+        //e.g. a segment evicted while the list was open
+        video.setOnErrorListener((mp, what, extra) -> {
+            Log.e(TAG, "recording playback error:" + what + " " + extra);
+            next();
+            return true;
+        });
+        layout.addView(video, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+
+        seek = new SeekBar(this);
+        seek.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int value, boolean fromUser) {
+                if (fromUser && call != null) {
+                    position.setText(time(value) + " / " + time(RecordingStore.durationOf(call)));
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {
+                if (call != null) {
+                    play(bar.getProgress());
+                }
+            }
+        });
+        layout.addView(seek);
+
+        position = new TextView(this);
+        layout.addView(position);
+
+        summary = new TextView(this);
+        layout.addView(summary);
+
+        list = new ListView(this);
+        TextView empty = new TextView(this);
+        empty.setText(getString(R.string.no_recordings));
+        layout.addView(empty);
+        list.setEmptyView(empty);
+        layout.addView(list, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+
+        setContentView(layout);
+        load();
+    }
+
+    //the index is read on the first use of the store, not on the UI thread
+    private void load() {
+        new Thread(() -> {
+            RecordingStore s = ConnectionHolder.getInstance().getRecordings(this);
+            List<RecordingStore.Segment> calls = s.calls();
+            long bytes = s.getTotalBytes();
+            runOnUiThread(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                store = s;
+                show(calls, bytes);
+            });
+        }, "Recordings").start();
+    }
+
+    private void show(List<RecordingStore.Segment> calls, long bytes) {
+        summary.setText(getString(R.string.recordings_summary, calls.size(), bytes / (1024 * 1024)));
+        DeviceRegistry devices = ConnectionHolder.getInstance().getDevices();
+        SimpleDateFormat format = new SimpleDateFormat("dd.MM.yyyy HH:mm", Locale.getDefault());
+        List<String> items = new ArrayList<>();
+        for (RecordingStore.Segment first : calls) {
+            items.add(format.format(new Date(first.callStartedAt)) + "  " +
+                    (devices != null ? devices.nameOf(first.device) : first.device));
+        }
+        list.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, items));
+        list.setOnItemClickListener((parent, view, i, id) -> {
+            call = store.callOf(calls.get(i));
+            if (call.isEmpty()) {
+                call = null;
+                return;
+            }
+            seek.setMax((int) RecordingStore.durationOf(call));
+            play(0);
+        });
+    }
+
+    //opens the segment playing at positionMs of the call
+    private void play(long positionMs) {
+        index = RecordingStore.find(call, positionMs);
+        RecordingStore.Segment s = call.get(index);
+        pendingSeek = (int) Math.max(0, positionMs - s.offsetMs);
+        video.setVideoPath(store.fileOf(s).getAbsolutePath());
+    }
+
+    private void next() {
+        if (call == null || index + 1 >= call.size()) {
+            return;
+        }
+        play(call.get(index + 1).offsetMs);
+    }
+
+    private static String time(long ms) {
+        long s = ms / 1000;
+        return String.format(Locale.ROOT, "%d:%02d", s / 60, s % 60);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(progress);
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(progress);
+        video.pause();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        video.stopPlayback();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,99 @@
+package com.jaszczurtd.sipclient;
+
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Cold start milestones measured from the process start. Only the first occurrence of
+ * each mark in a process counts, so a reopened Activity or a re-registration doesn't
+ * move them. Once the marks of the SIP mode are in, the PSS is taken and the report is
+ * logged, it is also shown in diagnostics. The work between the marks is covered by
+ * Trace sections for systrace/Perfetto.
+ */
+public final class StartupTrace implements Constants {
+
+    public enum Mark {
+        ACTIVITY_CREATED("activity created"),
+        FIRST_FRAME("first frame"),
+        MQTT_CONNECTED("MQTT connected"),
+        CORE_STARTED("Linphone Core started", true),
+        SIP_REGISTERED("SIP registered", true);
+
+        final String label;
+        //not waited for in lazy SIP mode
+        final boolean sip;
+
+        Mark(String label) {
+            this(label, false);
+        }
+
+        Mark(String label, boolean sip) {
+            this.label = label;
+            this.sip = sip;
+        }
+    }
+
+    //elapsedRealtime of each mark, 0 while not reached
+    private static final long[] reached = new long[Mark.values().length];
+    private static boolean lazySip;
+    //PSS in kB once the startup was complete, 0 before
+    private static long readyPss;
+
+    private StartupTrace() {
+    }
+
+    /** Set before the first marks, in lazy mode the startup is complete without SIP. */
+    public static void setLazySip(boolean lazy) {
+        synchronized (reached) {
+            lazySip = lazy;
+        }
+    }
+
+    public static void mark(Mark mark) {
+        boolean complete;
+        synchronized (reached) {
+            if (reached[mark.ordinal()] != 0 || readyPss != 0) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            reached[mark.ordinal()] = now;
+            Log.v(TAG, "startup: " + mark.label + " at " + (now - Process.getStartElapsedRealtime()) + " ms");
+            complete = true;
+            for (Mark m : Mark.values()) {
+                complete &= reached[m.ordinal()] != 0 || (lazySip && m.sip);
+            }
+        }
+        if (complete) {
+            //takes a few ms, done once per process
+            long pss = Debug.getPss();
+            synchronized (reached) {
+                readyPss = Math.max(1, pss);
+            }
+            Log.i(TAG, report());
+        }
+    }
+
+    /** Milliseconds since the process start for each mark, "-" for the ones not reached yet. */
+    public static String report() {
+        long start = Process.getStartElapsedRealtime();
+        StringBuilder sb = new StringBuilder("Startup (ms since process start)\n");
+        synchronized (reached) {
+            sb.append("  SIP mode              ").append(lazySip ? "lazy" : "eager").append('\n');
+            long previous = start;
+            for (Mark mark : Mark.values()) {
+                long at = reached[mark.ordinal()];
+                sb.append(String.format("  %-22s", mark.label));
+                if (at == 0) {
+                    sb.append("-\n");
+                    continue;
+                }
+                sb.append(String.format("%6d  (+%d)\n", at - start, at - previous));
+                previous = at;
+            }
+            sb.append("  PSS when ready        ").append(readyPss != 0 ? readyPss + " kB" : "-").append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.jaszczurtd.sipclient;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.linphone.core.Call;
+import org.linphone.core.CallParams;
+import org.linphone.core.CallStats;
+import org.linphone.core.Core;
+import org.linphone.core.StreamType;
+
+/**
+ * Applies {@link VideoProfilePolicy} to the running call: sets the profile of the
+ * network before the INVITE, samples the incoming video statistics every
+ * {@link #SAMPLE_INTERVAL_MS} while the streams run and renegotiates the call when
+ * the policy switches. Linphone thread only.
+ */
+final class VideoProfileEngine implements Constants {
+
+    static final long SAMPLE_INTERVAL_MS = 1000;
+
+    private final Handler handler;
+    private final VideoProfilePolicy policy = new VideoProfilePolicy();
+    private final Runnable sampleTask = this::sample;
+    private Call call;
+
+    /** @param handler handler of the Linphone thread */
+    VideoProfileEngine(Handler handler) {
+        this.handler = handler;
+    }
+
+    /** Before the INVITE, so the SDP carries the caps of the network in use. */
+    void callStarting(Core core, Transport transport, boolean metered) {
+        VideoProfilePolicy.Profile p = policy.start(transport, metered, SystemClock.elapsedRealtime());
+        Log.v(TAG, "video profile " + p + " for " + transport + (metered ? " (metered)" : ""));
+        apply(core, p);
+    }
+
+    void streamsRunning(Call c) {
+        if (call == c) {
+            return;
+        }
+        call = c;
+        handler.removeCallbacks(sampleTask);
+        handler.postDelayed(sampleTask, SAMPLE_INTERVAL_MS);
+    }
+
+    void callEnded() {
+        call = null;
+        handler.removeCallbacks(sampleTask);
+    }
+
+    void networkChanged(Transport transport, boolean metered) {
+        if (call == null) {
+            return;
+        }
+        VideoProfilePolicy.Profile p = policy.networkChanged(transport, metered, SystemClock.elapsedRealtime());
+        if (p != null) {
+            switchTo(p);
+        }
+    }
+
+    private void sample() {
+        Call c = call;
+        if (c == null || c.getState() != Call.State.StreamsRunning) {
+            //paused or being updated, the next StreamsRunning starts sampling again
+            call = null;
+            return;
+        }
+        CallStats stats = c.getStats(StreamType.Video);
+        if (stats != null) {
+            double loss = stats.getReceiverLossRate();
+            //jitter and RTT are reported in seconds
+            double jitter = stats.getReceiverInterarrivalJitter() * 1000;
+            double rtt = stats.getRoundTripDelay() * 1000;
+            double kbps = stats.getDownloadBandwidth();
+            VideoProfilePolicy.Profile p = policy.sample(loss, jitter, rtt, kbps, SystemClock.elapsedRealtime());
+            if (p != null) {
+                Log.v(TAG, String.format("video: loss %.1f%% jitter %.0f ms rtt %.0f ms %.0f kbit/s",
+                        loss, jitter, rtt, kbps));
+                switchTo(p);
+                return;
+            }
+        }
+        handler.postDelayed(sampleTask, SAMPLE_INTERVAL_MS);
+    }
+
+    //re-INVITE with the new caps, sampling resumes with the next StreamsRunning
+    private void switchTo(VideoProfilePolicy.Profile p) {
+        Call c = call;
+        call = null;
+        handler.removeCallbacks(sampleTask);
+        if (c == null) {
+            return;
+        }
+        Core core = c.getCore();
+        Log.v(TAG, "video profile switched to " + p);
+        apply(core, p);
+        CallParams params = core.createCallParams(c);
+        if (params != null) {
+            c.update(params);
+        }
+    }
+
+    /** Caps of p for the next SDP offer of the Core, also used by {@link CameraGrid}. */
+    static void apply(Core core, VideoProfilePolicy.Profile p) {
+        core.setPreferredVideoDefinitionByName(p.definition);
+        core.setPreferredFramerate(p.fps);
+        core.setDownloadBandwidth(p.bandwidthKbps);
+        core.setUploadBandwidth(p.bandwidthKbps);
+    }
+}
@@ -0,0 +1,123 @@
+package com.jaszczurtd.sipclient;
+
+/**
+ * Picks the video profile of a call from its live statistics. A call starts at the
+ * ceiling of the network in use, steps down after {@link #DOWNGRADE_SAMPLES} bad
+ * samples in a row and back up after {@link #UPGRADE_SAMPLES} good ones. Every switch
+ * is renegotiated, so switches are also kept apart by a minimum dwell time.
+ * Not thread safe, {@link VideoProfileEngine} uses it on the Linphone thread.
+ */
+public class VideoProfilePolicy implements Constants {
+
+    /** Ordered from the best to the cheapest, bandwidth in kbit/s with 0 for no cap. */
+    public enum Profile {
+        HIGH("720p", 25, 0),
+        MEDIUM("vga", 20, 1024),
+        LOW("qvga", 15, 512),
+        MINIMAL("qcif", 10, 256);
+
+        public final String definition;
+        public final int fps;
+        public final int bandwidthKbps;
+
+        Profile(String definition, int fps, int bandwidthKbps) {
+            this.definition = definition;
+            this.fps = fps;
+            this.bandwidthKbps = bandwidthKbps;
+        }
+    }
+
+    static final int DOWNGRADE_SAMPLES = 3;
+    static final int UPGRADE_SAMPLES = 10;
+    //time for a switch to show in the statistics before the next one down
+    static final long MIN_DWELL_DOWN_MS = 5 * 1000;
+    static final long MIN_DWELL_UP_MS = 20 * 1000;
+
+    static final double BAD_LOSS_PERCENT = 5;
+    static final double BAD_JITTER_MS = 50;
+    static final double BAD_RTT_MS = 500;
+    static final double GOOD_LOSS_PERCENT = 1;
+    static final double GOOD_JITTER_MS = 20;
+    static final double GOOD_RTT_MS = 250;
+    //below this the incoming video has stalled
+    static final double STALL_KBPS = 8;
+
+    private Profile ceiling = Profile.HIGH;
+    private Profile current = Profile.HIGH;
+    private int badSamples;
+    private int goodSamples;
+    private long lastSwitch;
+
+    /** Best profile the network is trusted with, the LTE one avoids unlimited bursts. */
+    static Profile ceilingOf(Transport transport, boolean metered) {
+        if ((transport == Transport.WIFI || transport == Transport.ETHERNET) && !metered) {
+            return Profile.HIGH;
+        }
+        return Profile.MEDIUM;
+    }
+
+    /**
+     * Profile of a tile in the camera grid. The selected tile gets the network ceiling,
+     * the others share what is left: two of them fit LOW, more or a metered network
+     * only MINIMAL, so three cameras stay near the budget of one call.
+     */
+    static Profile tileProfile(boolean selected, int visibleTiles, Transport transport, boolean metered) {
+        if (selected) {
+            return ceilingOf(transport, metered);
+        }
+        return visibleTiles <= 2 && !metered ? Profile.LOW : Profile.MINIMAL;
+    }
+
+    /** A call starts, returns its first profile. */
+    public Profile start(Transport transport, boolean metered, long nowMs) {
+        ceiling = ceilingOf(transport, metered);
+        current = ceiling;
+        badSamples = 0;
+        goodSamples = 0;
+        lastSwitch = nowMs;
+        return current;
+    }
+
+    /** Returns the new profile when the network change lowers the ceiling below it, null otherwise. */
+    public Profile networkChanged(Transport transport, boolean metered, long nowMs) {
+        ceiling = ceilingOf(transport, metered);
+        if (current.ordinal() < ceiling.ordinal()) {
+            return switchTo(ceiling, nowMs);
+        }
+        return null;
+    }
+
+    /**
+     * One sample of the incoming video stream, returns the profile to switch to or null
+     * to stay.
+     */
+    public Profile sample(double lossPercent, double jitterMs, double rttMs, double kbps, long nowMs) {
+        boolean bad = lossPercent > BAD_LOSS_PERCENT || jitterMs > BAD_JITTER_MS || rttMs > BAD_RTT_MS ||
+                kbps < STALL_KBPS;
+        boolean good = lossPercent < GOOD_LOSS_PERCENT && jitterMs < GOOD_JITTER_MS && rttMs < GOOD_RTT_MS;
+        badSamples = bad ? badSamples + 1 : 0;
+        goodSamples = good ? goodSamples + 1 : 0;
+
+        if (badSamples >= DOWNGRADE_SAMPLES && current != Profile.MINIMAL &&
+                nowMs - lastSwitch >= MIN_DWELL_DOWN_MS) {
+            return switchTo(Profile.values()[current.ordinal() + 1], nowMs);
+        }
+        if (goodSamples >= UPGRADE_SAMPLES && current.ordinal() > ceiling.ordinal() &&
+                nowMs - lastSwitch >= MIN_DWELL_UP_MS) {
+            return switchTo(Profile.values()[current.ordinal() - 1], nowMs);
+        }
+        return null;
+    }
+
+    private Profile switchTo(Profile profile, long nowMs) {
+        current = profile;
+        badSamples = 0;
+        goodSamples = 0;
+        lastSwitch = nowMs;
+        return profile;
+    }
+
+    public Profile getCurrent() {
+        return current;
+    }
+}
@@ -0,0 +1,115 @@
+package com.jaszczurtd.sipclient;
+
+/**
+ * Fit, pinch zoom and pan state of {@link ZoomableVideoTextureView}. The view only
+ * feeds it gestures and sizes through {@link Viewport} and copies the resulting
+ * draw matrix into an android.graphics.Matrix.
+ */
+final class ZoomController {
+
+    interface Viewport {
+        int getWidth();
+        int getHeight();
+    }
+
+    private final Viewport viewport;
+
+    final ZoomTransform baseMatrix = new ZoomTransform();
+    final ZoomTransform userMatrix = new ZoomTransform();  // pinch + pan
+    private final ZoomTransform drawMatrix = new ZoomTransform();  // user * base
+
+    private int videoW = 0, videoH = 0;
+    private int videoRotation = 0; // 0/90/180/270
+
+    // Zoom / pan
+    private float minScale = 1.0f;
+    private final float maxScale = 5.0f;
+    float currentScale = 1.0f;
+    float transX = 0f, transY = 0f;
+
+    private final float[] viewRect = new float[4];
+    private final float[] contentRect = new float[4];
+
+    ZoomController(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    void setVideo(int w, int h, int rotationDeg) {
+        this.videoW = w; this.videoH = h; this.videoRotation = (rotationDeg % 360 + 360) % 360;
+        recomputeBaseMatrix();
+    }
+
+    void recomputeBaseMatrix() {
+        baseMatrix.reset();
+        int width = viewport.getWidth(), height = viewport.getHeight();
+        if (videoW == 0 || videoH == 0 || width == 0 || height == 0) return;
+
+        boolean swap = (videoRotation % 180) != 0;
+        float srcW = swap ? videoH : videoW;
+        float srcH = swap ? videoW : videoH;
+
+        float viewW = width, viewH = height;
+        float scale = Math.min(viewW / srcW, viewH / srcH);
+        float dx = (viewW - srcW * scale) * 0.5f;
+        float dy = (viewH - srcH * scale) * 0.5f;
+
+        baseMatrix.postRotate(videoRotation);
+        baseMatrix.postScale(scale, scale);
+        baseMatrix.postTranslate(dx, dy);
+
+        minScale = 1.0f;
+        clampTranslation();
+    }
+
+    /** Pinch step, the resulting scale is kept within min/max. */
+    void pinch(float focusX, float focusY, float scaleFactor) {
+        float next = clamp(currentScale * scaleFactor, minScale, maxScale);
+        scaleAround(focusX, focusY, next / currentScale);
+        currentScale = next;
+    }
+
+    void scaleAround(float px, float py, float factor) {
+        userMatrix.postScale(factor, factor, px, py);
+        currentScale *= factor;
+        clampTranslation();
+    }
+
+    void translate(float dx, float dy) {
+        userMatrix.postTranslate(dx, dy);
+        transX += dx; transY += dy;
+        clampTranslation();
+    }
+
+    void clampTranslation() {
+        viewRect[0] = 0;
+        viewRect[1] = 0;
+        viewRect[2] = viewport.getWidth();
+        viewRect[3] = viewport.getHeight();
+        drawMatrix.set(baseMatrix);
+        drawMatrix.postConcat(userMatrix);
+        drawMatrix.mapRect(contentRect, viewRect);
+    }
+
+    void resetUserTransform() {
+        userMatrix.reset();
+        currentScale = 1.0f;
+        transX = transY = 0f;
+    }
+
+    /** User transform of the reset animation, scaled around the view center. */
+    void setUserTransform(float scale, float tx, float ty) {
+        userMatrix.reset();
+        float cx = viewport.getWidth() / 2f, cy = viewport.getHeight() / 2f;
+        userMatrix.postScale(scale, scale, cx, cy);
+        userMatrix.postTranslate(tx, ty);
+    }
+
+    /** base followed by user transform, the returned object is reused. */
+    ZoomTransform getDrawMatrix() {
+        drawMatrix.set(baseMatrix);
+        drawMatrix.postConcat(userMatrix);
+        return drawMatrix;
+    }
+
+    private static float clamp(float v, float lo, float hi) { return Math.max(lo, Math.min(hi, v)); }
+}
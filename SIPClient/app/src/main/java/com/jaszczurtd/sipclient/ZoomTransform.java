@@ -0,0 +1,88 @@
+package com.jaszczurtd.sipclient;
+
+/**
+ * 2D affine transform with the post* semantics of android.graphics.Matrix, used by
+ * {@link ZoomController} so the zoom math runs (and can be benchmarked) without
+ * Android. Mutating methods never allocate.
+ */
+final class ZoomTransform {
+
+    //x' = scaleX * x + skewX * y + transX, y' = skewY * x + scaleY * y + transY
+    float scaleX = 1, skewX, transX;
+    float skewY, scaleY = 1, transY;
+
+    void reset() {
+        scaleX = 1; skewX = 0; transX = 0;
+        skewY = 0; scaleY = 1; transY = 0;
+    }
+
+    void set(ZoomTransform o) {
+        scaleX = o.scaleX; skewX = o.skewX; transX = o.transX;
+        skewY = o.skewY; scaleY = o.scaleY; transY = o.transY;
+    }
+
+    void postTranslate(float dx, float dy) {
+        transX += dx;
+        transY += dy;
+    }
+
+    void postScale(float sx, float sy) {
+        postScale(sx, sy, 0, 0);
+    }
+
+    void postScale(float sx, float sy, float px, float py) {
+        scaleX *= sx; skewX *= sx; transX = sx * transX + px - sx * px;
+        skewY *= sy; scaleY *= sy; transY = sy * transY + py - sy * py;
+    }
+
+    /** Rotation around (0,0), right angles are exact like in Android's Matrix. */
+    void postRotate(float degrees) {
+        float sin, cos;
+        int deg = Math.round(degrees);
+        if (deg == degrees && deg % 90 == 0) {
+            int quarter = ((deg / 90) % 4 + 4) % 4;
+            sin = quarter == 1 ? 1 : quarter == 3 ? -1 : 0;
+            cos = quarter == 0 ? 1 : quarter == 2 ? -1 : 0;
+        } else {
+            double rad = Math.toRadians(degrees);
+            sin = (float) Math.sin(rad);
+            cos = (float) Math.cos(rad);
+        }
+        float a = scaleX, c = skewX, tx = transX;
+        float b = skewY, d = scaleY, ty = transY;
+        scaleX = cos * a - sin * b; skewX = cos * c - sin * d; transX = cos * tx - sin * ty;
+        skewY = sin * a + cos * b; scaleY = sin * c + cos * d; transY = sin * tx + cos * ty;
+    }
+
+    /** this = other * this, same as Matrix.postConcat(). */
+    void postConcat(ZoomTransform o) {
+        float a = scaleX, c = skewX, tx = transX;
+        float b = skewY, d = scaleY, ty = transY;
+        scaleX = o.scaleX * a + o.skewX * b;
+        skewX = o.scaleX * c + o.skewX * d;
+        transX = o.scaleX * tx + o.skewX * ty + o.transX;
+        skewY = o.skewY * a + o.scaleY * b;
+        scaleY = o.skewY * c + o.scaleY * d;
+        transY = o.skewY * tx + o.scaleY * ty + o.transY;
+    }
+
+    /** Bounds of the mapped rectangle, both arrays are {left, top, right, bottom}. */
+    void mapRect(float[] dst, float[] src) {
+        float l = src[0], t = src[1], r = src[2], btm = src[3];
+        float x0 = scaleX * l + skewX * t + transX, y0 = skewY * l + scaleY * t + transY;
+        float x1 = scaleX * r + skewX * t + transX, y1 = skewY * r + scaleY * t + transY;
+        float x2 = scaleX * l + skewX * btm + transX, y2 = skewY * l + scaleY * btm + transY;
+        float x3 = scaleX * r + skewX * btm + transX, y3 = skewY * r + scaleY * btm + transY;
+        dst[0] = Math.min(Math.min(x0, x1), Math.min(x2, x3));
+        dst[1] = Math.min(Math.min(y0, y1), Math.min(y2, y3));
+        dst[2] = Math.max(Math.max(x0, x1), Math.max(x2, x3));
+        dst[3] = Math.max(Math.max(y0, y1), Math.max(y2, y3));
+    }
+
+    /** Values in the order of Matrix.setValues(). */
+    void getValues(float[] values) {
+        values[0] = scaleX; values[1] = skewX; values[2] = transX;
+        values[3] = skewY; values[4] = scaleY; values[5] = transY;
+        values[6] = 0; values[7] = 0; values[8] = 1;
+    }
+}
@@ -0,0 +1,62 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+public class CallQualityFileTest {
+
+    private static byte[] record(CallQualitySamples samples, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CallQualityFile.writeHeader(out, new CallQualityFile.Header(1000, "garage", "H264", "WIFI", 1000));
+        for (int i = 1; i <= count; i++) {
+            samples.set(CallQualitySamples.Field.VIDEO_FPS, i);
+            samples.set(CallQualitySamples.Field.AUDIO_LOSS, 0.5f);
+            samples.commit(i * 1000);
+        }
+        samples.drainTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void fullRingKeepsTheNewestSamples() throws IOException {
+        CallQualitySamples samples = new CallQualitySamples(3);
+        byte[] file = record(samples, 5);
+        assertEquals(2, samples.getOverwritten());
+        assertEquals(0, samples.pending());
+
+        StringWriter csv = new StringWriter();
+        CallQualityFile.toCsv(new ByteArrayInputStream(file), csv, true);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("started_at,device,codec,transport,time_ms,audio_jitter,audio_loss"));
+        assertTrue(lines[0].endsWith(",video_fps"));
+        assertEquals("1000,garage,H264,WIFI,3000,0.00,0.50", lines[1].substring(0, 36));
+        assertTrue(lines[3].endsWith(",5.00"));
+    }
+
+    @Test
+    public void truncatedFileIsReadUpToTheLastWholeRecord() throws IOException {
+        byte[] file = record(new CallQualitySamples(10), 2);
+        byte[] cut = Arrays.copyOf(file, file.length - 3);
+
+        StringWriter json = new StringWriter();
+        CallQualityFile.toJson(new ByteArrayInputStream(cut), json);
+        String s = json.toString();
+        assertTrue(s.contains("\"device\": \"garage\""));
+        assertTrue(s.contains("\"columns\": [\"time_ms\", \"audio_jitter\""));
+        assertTrue(s.contains("[1000,0.00,0.50"));
+        assertFalse(s.contains("[2000,"));
+    }
+}
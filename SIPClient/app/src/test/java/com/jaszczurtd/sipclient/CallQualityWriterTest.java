@@ -0,0 +1,84 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+public class CallQualityWriterTest {
+
+    private static final CallQualityFile.Header HEADER =
+            new CallQualityFile.Header(1000, "garage", "H264", "WIFI", 1000);
+
+    //a full disk, the header still fits in the buffer of the writer
+    private static final class FailingStream extends OutputStream {
+        int writes;
+        boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            throw new IOException("no space left");
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void commit(CallQualitySamples samples, int count) {
+        for (int i = 1; i <= count; i++) {
+            samples.set(CallQualitySamples.Field.VIDEO_FPS, i);
+            samples.commit(i * 1000);
+        }
+    }
+
+    @Test
+    public void writeErrorClosesTheFileOnce() throws IOException {
+        FailingStream disk = new FailingStream();
+        CallQualityWriter writer = new CallQualityWriter(disk, HEADER);
+        CallQualitySamples samples = new CallQualitySamples(8);
+        commit(samples, 3);
+
+        assertFalse(writer.write(samples));
+        IOException error = writer.getError();
+        assertTrue(disk.closed);
+        int writes = disk.writes;
+
+        //nothing is written after the error, neither by the next samples nor by close
+        commit(samples, 2);
+        assertTrue(writer.write(samples));
+        assertSame(error, writer.close(samples));
+        assertEquals(writes, disk.writes);
+    }
+
+    @Test
+    public void samplesAreAppendedAfterTheHeader() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        CallQualityWriter writer = new CallQualityWriter(file, HEADER);
+        CallQualitySamples samples = new CallQualitySamples(8);
+        commit(samples, 2);
+        assertTrue(writer.write(samples));
+        commit(samples, 1);
+        assertNull(writer.close(samples));
+
+        StringWriter csv = new StringWriter();
+        CallQualityFile.toCsv(new ByteArrayInputStream(file.toByteArray()), csv, false);
+        assertEquals(3, csv.toString().split("\n").length);
+    }
+}
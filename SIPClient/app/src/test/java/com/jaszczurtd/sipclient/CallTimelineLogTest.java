@@ -0,0 +1,80 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+public class CallTimelineLogTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static void call(CallTimelineLog log, String device, int connectedMs, boolean failed) {
+        log.start(device, 0, 0);
+        log.stage(CallTimeline.Stage.OUTGOING_INIT, 5 * MS);
+        log.stage(CallTimeline.Stage.CONNECTED, connectedMs * MS);
+        //a later repeat of a stage doesn't move it
+        log.stage(CallTimeline.Stage.CONNECTED, (connectedMs + 1000) * MS);
+        log.finish(failed);
+    }
+
+    @Test
+    public void percentilesArePerDeviceAndSkipFailedCalls() {
+        CallTimelineLog log = new CallTimelineLog();
+        for (int i = 1; i <= 10; i++) {
+            call(log, Constants.GARAGE_USER, i * 100, false);
+        }
+        call(log, Constants.GARAGE_USER, 50, true);
+        call(log, Constants.HOME_USER, 300, false);
+
+        assertEquals(500, log.percentile(Constants.GARAGE_USER, CallTimeline.Stage.CONNECTED, 50));
+        assertEquals(900, log.percentile(Constants.GARAGE_USER, CallTimeline.Stage.CONNECTED, 90));
+        assertEquals(1000, log.percentile(Constants.GARAGE_USER, CallTimeline.Stage.CONNECTED, 100));
+        assertEquals(300, log.percentile(Constants.HOME_USER, CallTimeline.Stage.CONNECTED, 50));
+        assertEquals(CallTimeline.NONE, log.percentile(Constants.HOME_USER, CallTimeline.Stage.FIRST_FRAME, 50));
+        assertNull(log.finish(false));
+    }
+
+    @Test
+    public void ringKeepsTheLatestCalls() {
+        CallTimelineLog log = new CallTimelineLog();
+        for (int i = 0; i < CallTimelineLog.CAPACITY + 10; i++) {
+            call(log, Constants.KITCHEN_USER, i, false);
+        }
+        assertEquals(CallTimelineLog.CAPACITY, log.timelines().size());
+        assertEquals(10, log.timelines().get(0).get(CallTimeline.Stage.CONNECTED));
+        assertEquals(CallTimelineLog.CAPACITY + 9,
+                log.timelines().get(CallTimelineLog.CAPACITY - 1).get(CallTimeline.Stage.CONNECTED));
+    }
+
+    @Test
+    public void survivesWriteAndRead() throws Exception {
+        CallTimelineLog log = new CallTimelineLog();
+        call(log, Constants.GARAGE_USER, 700, false);
+        call(log, Constants.HOME_USER, 400, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeTo(out);
+
+        CallTimelineLog restored = new CallTimelineLog();
+        restored.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, restored.timelines().size());
+        assertEquals(log.timelines().get(1).toString(), restored.timelines().get(1).toString());
+        assertEquals(700, restored.percentile(Constants.GARAGE_USER, CallTimeline.Stage.CONNECTED, 50));
+    }
+
+    @Test
+    public void reportNamesDevicesFromTheRegistry() {
+        CallTimelineLog log = new CallTimelineLog();
+        call(log, "pi4-brama", 100, false);
+        call(log, "pi9", 100, false);
+        String report = log.report(DeviceRegistry.parse("pi4-brama;Brama"));
+        assertTrue(report.contains("  Brama (pi4-brama): 1 calls"));
+        //not in the registry, shown by its SIP user
+        assertTrue(report.contains("  pi9 (pi9): 1 calls"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DeviceRegistryTest {
+
+    @Test
+    public void parsesDevicesAndTheirControls() {
+        DeviceRegistry registry = DeviceRegistry.parse(
+                "# sip user;name;controls\n" +
+                "pi3;Garaż;gpio/17=Światło:auto, gpio/27=Dzwonek\n" +
+                "\n" +
+                "pi5;Salon\n" +
+                "pi-gate\n");
+        assertEquals(3, registry.devices().size());
+        assertEquals("pi3", registry.devices().get(0).sipUser);
+        assertEquals("pi-gate", registry.nameOf("pi-gate"));
+
+        DeviceRegistry.Device garage = registry.get("PI3");
+        assertEquals("Garaż", garage.name);
+        assertEquals(2, garage.controls.size());
+        assertEquals("gpio/17", garage.controls.get(0).topic);
+        assertEquals("Światło", garage.controls.get(0).label);
+        assertTrue(garage.controls.get(0).auto);
+        assertFalse(garage.controls.get(1).auto);
+        assertTrue(registry.get("pi5").controls.isEmpty());
+        assertNull(registry.get("unknown"));
+        assertNull(registry.get(null));
+    }
+
+    @Test
+    public void brokenConfigKeepsTheOldRegistry() {
+        assertNull(DeviceRegistry.parse(""));
+        assertNull(DeviceRegistry.parse("# nothing\n;no user\n"));
+
+        DeviceRegistry registry = DeviceRegistry.parse("pi5;Salon\npi5;Again\n;x\n");
+        assertEquals(1, registry.devices().size());
+        assertEquals("Salon", registry.nameOf("pi5"));
+        assertTrue(registry.sameSource("pi5;Salon\npi5;Again\n;x\n"));
+    }
+
+    @Test
+    public void builtInDevicesMatchTheOldButtons() {
+        DeviceRegistry registry = DeviceRegistry.builtIn("Salon", "Garaż", "Kuchnia", "Światło", "Dzwonek");
+        assertEquals(3, registry.devices().size());
+        DeviceRegistry.Device garage = registry.get(Constants.GARAGE_USER);
+        assertSame(garage, registry.devices().get(1));
+        assertEquals(Constants.MQTT_LIGHTS_TOPIC, garage.controls.get(0).topic);
+        assertTrue(garage.controls.get(0).auto);
+        assertEquals(Constants.MQTT_BELL_TOPIC, garage.controls.get(1).topic);
+        assertTrue(registry.get(Constants.KITCHEN_USER).controls.isEmpty());
+    }
+}
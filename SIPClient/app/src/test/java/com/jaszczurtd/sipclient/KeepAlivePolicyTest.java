@@ -0,0 +1,64 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeepAlivePolicyTest {
+
+    private static final long LATER = KeepAlivePolicy.NETWORK_SETTLE_MS + 1;
+
+    @Test
+    public void intervalsFollowTheNetwork() {
+        KeepAlivePolicy policy = new KeepAlivePolicy();
+        assertTrue(policy.networkChanged(Constants.Transport.WIFI, false, 0));
+        int wifiSip = policy.getSIPKeepAlive();
+        assertTrue(policy.setParked(true));
+        int wifiParked = policy.getMQTTKeepAlive();
+
+        assertTrue(policy.networkChanged(Constants.Transport.CELLULAR, true, 0));
+        assertTrue(policy.getSIPKeepAlive() < wifiSip);
+        assertTrue(policy.getMQTTKeepAlive() < wifiParked);
+        assertFalse(policy.networkChanged(Constants.Transport.CELLULAR, true, 0));
+    }
+
+    @Test
+    public void probingBacksOffToTheLastIntervalThatSurvived() {
+        KeepAlivePolicy policy = new KeepAlivePolicy();
+        policy.setProbing(true);
+        policy.networkChanged(Constants.Transport.CELLULAR, true, 0);
+        policy.setParked(true);
+        int start = policy.getMQTTKeepAlive();
+
+        assertTrue(policy.mqttStable());
+        assertEquals(start * 2, policy.getMQTTKeepAlive());
+
+        //the doubled interval runs into the NAT timeout
+        assertTrue(policy.mqttLost(start * 2 * 1000L, LATER));
+        assertEquals(start, policy.getMQTTKeepAlive());
+
+        //next step is halfway to the failed one
+        assertTrue(policy.mqttStable());
+        assertEquals(start * 3 / 2, policy.getMQTTKeepAlive());
+
+        //a value found by probing stays with probing off
+        policy.setProbing(false);
+        assertEquals(start, policy.getMQTTKeepAlive());
+    }
+
+    @Test
+    public void lossesRightAfterANetworkChangeAreIgnored() {
+        KeepAlivePolicy policy = new KeepAlivePolicy();
+        policy.setProbing(true);
+        policy.setParked(true);
+        policy.networkChanged(Constants.Transport.WIFI, false, 1000);
+        int keepAlive = policy.getMQTTKeepAlive();
+
+        assertFalse(policy.mqttLost(keepAlive * 1000L, 1000 + KeepAlivePolicy.NETWORK_SETTLE_MS / 2));
+        //not up for a whole keepalive, so it says nothing about the NAT
+        assertFalse(policy.mqttLost(1000, 1000 + LATER));
+        assertEquals(keepAlive, policy.getMQTTKeepAlive());
+    }
+}
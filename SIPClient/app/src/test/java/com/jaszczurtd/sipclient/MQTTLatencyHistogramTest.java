@@ -0,0 +1,44 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MQTTLatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, MQTTLatencyHistogram.MAX_VALUE};
+        for (long v : values) {
+            int i = MQTTLatencyHistogram.index(v);
+            long low = MQTTLatencyHistogram.lowestValue(i);
+            assertTrue(v + " below bucket", v >= low);
+            assertTrue(v + " above bucket", v < low + MQTTLatencyHistogram.bucketWidth(i));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinPrecision() {
+        MQTTLatencyHistogram h = new MQTTLatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(10000, h.getMax());
+        assertEquals(5000.5, h.getMean(), 0.001);
+        assertEquals(5000, h.getValueAtPercentile(50), 5000 / MQTTLatencyHistogram.SUB_BUCKETS);
+        assertEquals(9900, h.getValueAtPercentile(99), 9900 / MQTTLatencyHistogram.SUB_BUCKETS);
+        assertEquals(10000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        MQTTLatencyHistogram h = new MQTTLatencyHistogram();
+        h.record(42);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(50));
+    }
+}
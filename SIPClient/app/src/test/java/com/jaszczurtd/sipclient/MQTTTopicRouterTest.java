@@ -0,0 +1,86 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MQTTTopicRouterTest {
+
+    private final MqttMessage message = new MqttMessage("on".getBytes());
+
+    private IMqttMessageListener recorder(List<String> received, String name) {
+        return (topic, m) -> received.add(name + ":" + topic);
+    }
+
+    @Test
+    public void exactFilterMatchesOnlyItsTopic() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        List<String> received = new ArrayList<>();
+        router.add("gpio/17", recorder(received, "lights"));
+        router.add("gpio/27", recorder(received, "bell"));
+
+        assertEquals(1, router.dispatch("gpio/17", message));
+        assertEquals(0, router.dispatch("gpio/170", message));
+        assertEquals(0, router.dispatch("gpio", message));
+        assertEquals(List.of("lights:gpio/17"), received);
+    }
+
+    @Test
+    public void singleLevelWildcard() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        List<String> received = new ArrayList<>();
+        router.add("sensors/+/temp", recorder(received, "temp"));
+
+        assertEquals(1, router.dispatch("sensors/garage/temp", message));
+        assertEquals(1, router.dispatch("sensors//temp", message));
+        assertEquals(0, router.dispatch("sensors/garage/door/temp", message));
+        assertEquals(0, router.dispatch("sensors/garage", message));
+    }
+
+    @Test
+    public void multiLevelWildcardMatchesParentAndChildren() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        List<String> received = new ArrayList<>();
+        router.add("gpio/#", recorder(received, "all"));
+        router.add("gpio/17", recorder(received, "lights"));
+
+        assertEquals(1, router.dispatch("gpio", message));
+        assertEquals(2, router.dispatch("gpio/17", message));
+        assertEquals(1, router.dispatch("gpio/a/b/c", message));
+        assertTrue(received.contains("lights:gpio/17"));
+    }
+
+    @Test
+    public void wildcardsSkipDollarTopics() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        List<String> received = new ArrayList<>();
+        router.add("#", recorder(received, "all"));
+        router.add("+/broker/uptime", recorder(received, "plus"));
+        router.add("$SYS/#", recorder(received, "sys"));
+
+        assertEquals(1, router.dispatch("$SYS/broker/uptime", message));
+        assertEquals(List.of("sys:$SYS/broker/uptime"), received);
+    }
+
+    @Test
+    public void removedHandlerIsNotCalled() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        List<String> received = new ArrayList<>();
+        IMqttMessageListener h = recorder(received, "h");
+        router.add("gpio/+", h);
+
+        assertTrue(router.remove("gpio/+", h));
+        assertEquals(0, router.dispatch("gpio/17", message));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hashMustBeLast() {
+        new MQTTTopicRouter().add("gpio/#/x", (t, m) -> { });
+    }
+}
@@ -0,0 +1,92 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class RecordingStoreTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static RecordingStore.Segment record(RecordingStore store, long callStartedAt, int number,
+                                                 String device, long offsetMs, int bytes) throws IOException {
+        File f = store.newSegmentFile(callStartedAt, number, device);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[bytes]);
+        }
+        RecordingStore.Segment s = new RecordingStore.Segment(callStartedAt, number, device, offsetMs, 60000, bytes);
+        store.add(s);
+        return s;
+    }
+
+    @Test
+    public void oldestSegmentsAreEvictedBySizeAndAge() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot(), 250, 7 * DAY);
+        RecordingStore.Segment first = record(store, DAY, 0, "pi3", 0, 100);
+        record(store, DAY, 1, "pi3", 60000, 100);
+        record(store, 5 * DAY, 0, "pi5", 0, 100);
+
+        assertEquals(1, store.evict(5 * DAY));
+        assertFalse(store.fileOf(first).exists());
+        assertEquals(200, store.getTotalBytes());
+
+        //the rest of the first call is over a week old now
+        assertEquals(1, store.evict(8 * DAY + 60001));
+        List<RecordingStore.Segment> left = store.segments();
+        assertEquals(1, left.size());
+        assertEquals("pi5", left.get(0).device);
+    }
+
+    @Test
+    public void indexIsReloadedWithMissingAndUntrackedFiles() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot(), Long.MAX_VALUE, Long.MAX_VALUE);
+        RecordingStore.Segment gone = record(store, 1000, 0, "pi3", 0, 10);
+        record(store, 2000, 0, "pi5", 0, 10);
+        record(store, 2000, 1, "pi5", 60000, 10);
+        store.save();
+        assertTrue(store.fileOf(gone).delete());
+        //recorded when the app was killed, never indexed
+        File crashed = store.newSegmentFile(2000, 2, "pi5");
+        try (FileOutputStream out = new FileOutputStream(crashed)) {
+            out.write(new byte[5]);
+        }
+        assertTrue(crashed.setLastModified(2000 + 150000));
+
+        RecordingStore loaded = new RecordingStore(folder.getRoot(), Long.MAX_VALUE, Long.MAX_VALUE);
+        loaded.load();
+        List<RecordingStore.Segment> calls = loaded.calls();
+        assertEquals(1, calls.size());
+        List<RecordingStore.Segment> call = loaded.callOf(calls.get(0));
+        assertEquals(3, call.size());
+        assertEquals(120000, call.get(2).offsetMs);
+        assertEquals(30000, call.get(2).durationMs);
+        assertEquals(150000, RecordingStore.durationOf(call));
+        assertEquals(25, loaded.getTotalBytes());
+    }
+
+    @Test
+    public void seekingFindsTheSegmentOfAPosition() throws IOException {
+        RecordingStore store = new RecordingStore(folder.getRoot(), Long.MAX_VALUE, Long.MAX_VALUE);
+        for (int i = 0; i < 4; i++) {
+            record(store, 1000, i, "pi3", i * 60000L, 1);
+        }
+        List<RecordingStore.Segment> call = store.segments();
+        assertEquals(0, RecordingStore.find(call, 0));
+        assertEquals(0, RecordingStore.find(call, 59999));
+        assertEquals(1, RecordingStore.find(call, 60000));
+        assertEquals(3, RecordingStore.find(call, 200000));
+        assertEquals(3, RecordingStore.find(call, Long.MAX_VALUE));
+    }
+}
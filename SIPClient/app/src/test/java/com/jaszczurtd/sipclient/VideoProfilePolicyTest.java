@@ -0,0 +1,110 @@
+package com.jaszczurtd.sipclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.jaszczurtd.sipclient.VideoProfilePolicy.Profile;
+
+import org.junit.Test;
+
+public class VideoProfilePolicyTest {
+
+    private static Profile bad(VideoProfilePolicy policy, long nowMs) {
+        return policy.sample(10, 10, 100, 500, nowMs);
+    }
+
+    private static Profile good(VideoProfilePolicy policy, long nowMs) {
+        return policy.sample(0, 5, 50, 500, nowMs);
+    }
+
+    @Test
+    public void lteStartsBelowWifi() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        assertEquals(Profile.HIGH, policy.start(Constants.Transport.WIFI, false, 0));
+        assertEquals(Profile.MEDIUM, policy.start(Constants.Transport.CELLULAR, true, 0));
+        assertEquals(Profile.MEDIUM, policy.start(Constants.Transport.WIFI, true, 0));
+    }
+
+    @Test
+    public void stepsDownOnlyAfterABadStreakAndTheDwell() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        policy.start(Constants.Transport.WIFI, false, 0);
+        long t = VideoProfilePolicy.MIN_DWELL_DOWN_MS;
+        assertNull(bad(policy, t++));
+        assertNull(bad(policy, t++));
+        //a single good sample breaks the streak
+        assertNull(good(policy, t++));
+        assertNull(bad(policy, t++));
+        assertNull(bad(policy, t++));
+        assertEquals(Profile.MEDIUM, bad(policy, t++));
+
+        //the next step waits for the dwell time
+        for (int i = 0; i < VideoProfilePolicy.DOWNGRADE_SAMPLES; i++) {
+            assertNull(bad(policy, t++));
+        }
+        assertEquals(Profile.LOW, bad(policy, t + VideoProfilePolicy.MIN_DWELL_DOWN_MS));
+    }
+
+    @Test
+    public void jitterAloneCountsAsBad() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        policy.start(Constants.Transport.WIFI, false, 0);
+        long t = VideoProfilePolicy.MIN_DWELL_DOWN_MS;
+        Profile switched = null;
+        for (int i = 0; i < VideoProfilePolicy.DOWNGRADE_SAMPLES; i++) {
+            switched = policy.sample(0, VideoProfilePolicy.BAD_JITTER_MS + 10, 50, 500, t++);
+        }
+        assertEquals(Profile.MEDIUM, switched);
+    }
+
+    @Test
+    public void stallCountsAsBad() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        policy.start(Constants.Transport.WIFI, false, 0);
+        long t = VideoProfilePolicy.MIN_DWELL_DOWN_MS;
+        Profile switched = null;
+        for (int i = 0; i < VideoProfilePolicy.DOWNGRADE_SAMPLES; i++) {
+            switched = policy.sample(0, 0, 50, 0, t++);
+        }
+        assertEquals(Profile.MEDIUM, switched);
+    }
+
+    @Test
+    public void climbsBackNoHigherThanTheCeiling() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        policy.start(Constants.Transport.CELLULAR, true, 0);
+        long t = VideoProfilePolicy.MIN_DWELL_DOWN_MS;
+        for (int i = 0; i < VideoProfilePolicy.DOWNGRADE_SAMPLES; i++) {
+            bad(policy, t++);
+        }
+        assertEquals(Profile.LOW, policy.getCurrent());
+
+        t += VideoProfilePolicy.MIN_DWELL_UP_MS;
+        Profile switched = null;
+        for (int i = 0; i < VideoProfilePolicy.UPGRADE_SAMPLES; i++) {
+            switched = good(policy, t++);
+        }
+        assertEquals(Profile.MEDIUM, switched);
+        t += VideoProfilePolicy.MIN_DWELL_UP_MS;
+        for (int i = 0; i < VideoProfilePolicy.UPGRADE_SAMPLES * 2; i++) {
+            assertNull(good(policy, t++));
+        }
+    }
+
+    @Test
+    public void handoverToLteLowersTheProfile() {
+        VideoProfilePolicy policy = new VideoProfilePolicy();
+        policy.start(Constants.Transport.WIFI, false, 0);
+        assertEquals(Profile.MEDIUM, policy.networkChanged(Constants.Transport.CELLULAR, true, 1));
+        assertNull(policy.networkChanged(Constants.Transport.WIFI, false, 2));
+    }
+
+    @Test
+    public void gridTilesShareTheBudgetOfTheSelectedOne() {
+        assertEquals(Profile.HIGH, VideoProfilePolicy.tileProfile(true, 3, Constants.Transport.WIFI, false));
+        assertEquals(Profile.LOW, VideoProfilePolicy.tileProfile(false, 2, Constants.Transport.WIFI, false));
+        assertEquals(Profile.MINIMAL, VideoProfilePolicy.tileProfile(false, 3, Constants.Transport.WIFI, false));
+        assertEquals(Profile.MEDIUM, VideoProfilePolicy.tileProfile(true, 2, Constants.Transport.CELLULAR, true));
+        assertEquals(Profile.MINIMAL, VideoProfilePolicy.tileProfile(false, 2, Constants.Transport.CELLULAR, true));
+    }
+}
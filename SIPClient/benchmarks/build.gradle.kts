@@ -0,0 +1,42 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+// Plain JVM module: the benchmarks compile the Android free classes straight from the
+// app sources, android.util.Log is replaced by a no-op shim in src/jmh.
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    named("jmh") {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "android/util/Log.java",
+                "**/*Benchmark.java",
+                "com/jaszczurtd/sipclient/Constants.java",
+                "com/jaszczurtd/sipclient/MQTTTopicRouter.java",
+                "com/jaszczurtd/sipclient/MQTTPayloads.java",
+                "com/jaszczurtd/sipclient/ZoomTransform.java",
+                "com/jaszczurtd/sipclient/ZoomController.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    jmh("org.eclipse.paho:org.eclipse.paho.client.mqttv3:1.2.5")
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    //allocation rate per operation (gc.alloc.rate.norm) next to ops/s
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,68 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound path of the switches: topic routing through {@link MQTTTopicRouter} and
+ * decoding the on/off payload, as done for every message from the broker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MQTTDispatchBenchmark implements Constants {
+
+    private MQTTTopicRouter router;
+    private MqttMessage on;
+    private int switchedOn;
+
+    @Setup
+    public void setup() {
+        router = new MQTTTopicRouter();
+        router.add(MQTT_LIGHTS_TOPIC, (topic, message) -> {
+            if (MQTTPayloads.isOn(message.getPayload())) {
+                switchedOn++;
+            }
+        });
+        router.add(MQTT_BELL_TOPIC, (topic, message) -> {
+            if (MQTTPayloads.isOn(message.getPayload())) {
+                switchedOn++;
+            }
+        });
+        //a few more filters, so the trie isn't trivially small
+        router.add("gpio/+", (topic, message) -> { });
+        router.add("cameras/+/motion", (topic, message) -> { });
+        router.add("config/#", (topic, message) -> { });
+        on = new MqttMessage(MQTTPayloads.encode(MQTT_ON));
+    }
+
+    @Benchmark
+    public int dispatchSwitch() {
+        router.dispatch(MQTT_LIGHTS_TOPIC, on);
+        return switchedOn;
+    }
+
+    @Benchmark
+    public int dispatchUnhandled() {
+        return router.dispatch("sensors/garage/temperature", on);
+    }
+
+    @Benchmark
+    public boolean decodePayload() {
+        return MQTTPayloads.isOn(on.getPayload());
+    }
+
+    //what updateSwitchFromBroker did before MQTTPayloads, kept as the baseline
+    @Benchmark
+    public boolean decodePayloadAsString() {
+        return new String(on.getPayload()).equalsIgnoreCase(MQTT_ON);
+    }
+}
@@ -0,0 +1,37 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound path of MQTTClient.publish(): building the message from the string payload
+ * and the PUBLISH packet Paho writes to the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MQTTPublishEncodingBenchmark implements Constants {
+
+    @Benchmark
+    public MqttMessage buildMessage() {
+        return MQTTPayloads.message(MQTT_ON, 1, true);
+    }
+
+    @Benchmark
+    public void encodePublishPacket(Blackhole bh) throws MqttException {
+        MqttPublish publish = new MqttPublish(MQTT_LIGHTS_TOPIC, MQTTPayloads.message(MQTT_ON, 1, true));
+        publish.setMessageId(1);
+        bh.consume(publish.getHeader());
+        bh.consume(publish.getPayload());
+    }
+}
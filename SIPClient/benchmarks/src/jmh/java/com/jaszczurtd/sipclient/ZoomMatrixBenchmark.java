@@ -0,0 +1,69 @@
+package com.jaszczurtd.sipclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matrix math of ZoomableVideoTextureView, run for every layout change and for every
+ * touch event of a pinch or pan gesture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ZoomMatrixBenchmark {
+
+    //typical phone in portrait showing a rotated 720p stream
+    private static final int VIEW_W = 1080, VIEW_H = 2340;
+
+    private ZoomController zoom;
+
+    @Setup
+    public void setup() {
+        zoom = new ZoomController(new ZoomController.Viewport() {
+            @Override
+            public int getWidth() {
+                return VIEW_W;
+            }
+
+            @Override
+            public int getHeight() {
+                return VIEW_H;
+            }
+        });
+        zoom.setVideo(1280, 720, 90);
+    }
+
+    @Benchmark
+    public float recomputeBaseMatrix() {
+        zoom.recomputeBaseMatrix();
+        return zoom.baseMatrix.scaleX;
+    }
+
+    @Benchmark
+    public float scaleAround() {
+        zoom.resetUserTransform();
+        zoom.scaleAround(VIEW_W / 2f, VIEW_H / 2f, 1.05f);
+        return zoom.userMatrix.scaleX;
+    }
+
+    @Benchmark
+    public float clampTranslation() {
+        zoom.clampTranslation();
+        return zoom.getDrawMatrix().transX;
+    }
+
+    @Benchmark
+    public float pinchAndPan() {
+        zoom.resetUserTransform();
+        zoom.pinch(300, 900, 1.2f);
+        zoom.translate(-15, 10);
+        return zoom.getDrawMatrix().transY;
+    }
+}
@@ -0,0 +1,40 @@
+plugins {
+    java
+    application
+}
+
+// Plain JVM module running the real MQTTClient against an embedded broker behind an
+// impairing TCP proxy. The MQTT classes come straight from the app sources, the few
+// Android classes they touch are replaced by shims in src/main/java.
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "android/**",
+                "com/jaszczurtd/sipclient/Constants.java",
+                "com/jaszczurtd/sipclient/MQTT*.java",
+                "com/jaszczurtd/sipclient/ContextProvider.java",
+                "com/jaszczurtd/sipclient/R.java",
+                "com/jaszczurtd/sipclient/*Harness*.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    implementation("org.eclipse.paho:org.eclipse.paho.client.mqttv3:1.2.5")
+    // MQTTClient references the MQTT 5 transport even when it is not used
+    implementation("org.eclipse.paho:org.eclipse.paho.mqttv5.client:1.2.5")
+    implementation(libs.moquette.broker)
+    implementation(libs.bouncycastle.bcpkix)
+}
+
+application {
+    mainClass.set("com.jaszczurtd.sipclient.ReconnectHarness")
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+import android.content.res.Resources;
+
+import java.io.File;
+
+/** The part of Android's Context used by the MQTT classes. */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Context getApplicationContext();
+
+    public abstract File getFilesDir();
+
+    public abstract Resources getResources();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import java.util.Map;
+import java.util.Set;
+
+/** The part of Android's SharedPreferences used by the MQTT classes. */
+public interface SharedPreferences {
+
+    interface Editor {
+        Editor putString(String key, String value);
+        Editor putStringSet(String key, Set<String> values);
+        Editor remove(String key);
+        void apply();
+    }
+
+    Map<String, ?> getAll();
+
+    String getString(String key, String defValue);
+
+    Set<String> getStringSet(String key, Set<String> defValues);
+
+    Editor edit();
+}
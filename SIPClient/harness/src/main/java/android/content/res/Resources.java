@@ -0,0 +1,9 @@
+package android.content.res;
+
+import java.io.InputStream;
+
+/** The part of Android's Resources used by the MQTT classes. */
+public abstract class Resources {
+
+    public abstract InputStream openRawResource(int id);
+}
@@ -0,0 +1,37 @@
+package android.util;
+
+/** Stand-in for Android's Log, prints only with -Dharness.verbose=true. */
+public final class Log {
+
+    private static final boolean VERBOSE = Boolean.getBoolean("harness.verbose");
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return print(tag, msg);
+    }
+
+    public static int d(String tag, String msg) {
+        return print(tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return print(tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return print(tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return print(tag, msg);
+    }
+
+    private static int print(String tag, String msg) {
+        if (VERBOSE) {
+            System.out.println(System.currentTimeMillis() + " " + tag + ": " + msg);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+
+/** Stand-in for the app's ContextProvider, the harness sets the context itself. */
+public final class ContextProvider {
+
+    private static Context context;
+
+    private ContextProvider() {
+    }
+
+    public static synchronized Context getContext() {
+        return context;
+    }
+
+    static synchronized void setContext(Context c) {
+        context = c;
+    }
+}
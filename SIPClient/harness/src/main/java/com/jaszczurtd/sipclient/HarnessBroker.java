@@ -0,0 +1,50 @@
+package com.jaszczurtd.sipclient;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+/**
+ * Embedded Moquette broker, in-memory (no persistent_store) and anonymous. TLS on {@link #tlsPort} is what
+ * the client reaches through the proxy, plain TCP on {@link #plainPort} is used by
+ * the harness' own subscriber so its view is never affected by the impairments.
+ */
+final class HarnessBroker {
+
+    final int plainPort;
+    final int tlsPort;
+    private final Server server = new Server();
+
+    HarnessBroker(HarnessCertificates certificates) throws IOException {
+        plainPort = freePort();
+        tlsPort = freePort();
+
+        Properties p = new Properties();
+        p.setProperty(BrokerConstants.HOST_PROPERTY_NAME, "127.0.0.1");
+        p.setProperty(BrokerConstants.PORT_PROPERTY_NAME, String.valueOf(plainPort));
+        p.setProperty(BrokerConstants.SSL_PORT_PROPERTY_NAME, String.valueOf(tlsPort));
+        p.setProperty(BrokerConstants.JKS_PATH_PROPERTY_NAME, certificates.keyStore.getAbsolutePath());
+        p.setProperty(BrokerConstants.KEY_STORE_TYPE, "pkcs12");
+        p.setProperty(BrokerConstants.KEY_STORE_PASSWORD_PROPERTY_NAME, HarnessCertificates.KEYSTORE_PASSWORD);
+        p.setProperty(BrokerConstants.KEY_MANAGER_PASSWORD_PROPERTY_NAME, HarnessCertificates.KEYSTORE_PASSWORD);
+        p.setProperty(BrokerConstants.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        //acks would otherwise wait for the 1 s autoflush and show up as publish latency
+        p.setProperty(BrokerConstants.IMMEDIATE_BUFFER_FLUSH_PROPERTY_NAME, "true");
+        p.setProperty(BrokerConstants.WEB_SOCKET_PORT_PROPERTY_NAME, BrokerConstants.DISABLED_PORT_BIND);
+        server.startServer(new MemoryConfig(p));
+    }
+
+    void stop() {
+        server.stopServer();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
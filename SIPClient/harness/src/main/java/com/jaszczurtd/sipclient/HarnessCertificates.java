@@ -0,0 +1,90 @@
+package com.jaszczurtd.sipclient;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throwaway test CA and a broker certificate signed by it, valid for localhost and
+ * 127.0.0.1 so the client's hostname verification passes. The CA goes to the client
+ * as R.raw.ca, the broker key and chain go to a PKCS12 keystore for Moquette.
+ */
+final class HarnessCertificates {
+
+    static final String KEYSTORE_PASSWORD = "harness";
+
+    final byte[] caPem;
+    final File keyStore;
+
+    HarnessCertificates(File dir) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair caKeys = generator.generateKeyPair();
+        KeyPair serverKeys = generator.generateKeyPair();
+
+        X500Name caName = new X500Name("CN=SIPClient harness CA");
+        X509Certificate ca = sign(caName, caName, caKeys.getPublic(), caKeys.getPrivate(), true);
+        X509Certificate server = sign(caName, new X500Name("CN=localhost"),
+                serverKeys.getPublic(), caKeys.getPrivate(), false);
+
+        caPem = ("-----BEGIN CERTIFICATE-----\n" +
+                Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(ca.getEncoded()) +
+                "\n-----END CERTIFICATE-----\n").getBytes(StandardCharsets.US_ASCII);
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        ks.setKeyEntry("broker", serverKeys.getPrivate(), KEYSTORE_PASSWORD.toCharArray(),
+                new Certificate[]{server, ca});
+        keyStore = new File(dir, "broker.p12");
+        try (OutputStream out = new FileOutputStream(keyStore)) {
+            ks.store(out, KEYSTORE_PASSWORD.toCharArray());
+        }
+    }
+
+    private static X509Certificate sign(X500Name issuer, X500Name subject, PublicKey key,
+                                        PrivateKey issuerKey, boolean ca) throws Exception {
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer,
+                BigInteger.valueOf(now).add(BigInteger.valueOf(subject.hashCode() & 0xffff)),
+                new Date(now - TimeUnit.HOURS.toMillis(1)),
+                new Date(now + TimeUnit.DAYS.toMillis(1)),
+                subject, key);
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        if (ca) {
+            builder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        } else {
+            builder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment));
+            builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[]{
+                    new GeneralName(GeneralName.dNSName, "localhost"),
+                    new GeneralName(GeneralName.iPAddress, "127.0.0.1")}));
+        }
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey);
+        return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+    }
+}
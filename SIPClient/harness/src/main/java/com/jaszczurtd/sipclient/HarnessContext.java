@@ -0,0 +1,117 @@
+package com.jaszczurtd.sipclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context of one harness client: own files directory and in-memory preferences, so
+ * every scenario starts with a new client id, an empty outbox and no stored session.
+ */
+final class HarnessContext extends Context {
+
+    private final File filesDir;
+    private final byte[] caCertificate;
+    private final Map<String, Preferences> preferences = new HashMap<>();
+
+    HarnessContext(File filesDir, byte[] caCertificate) {
+        this.filesDir = filesDir;
+        this.caCertificate = caCertificate;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public Resources getResources() {
+        return new Resources() {
+            @Override
+            public InputStream openRawResource(int id) {
+                if (id != R.raw.ca) {
+                    throw new IllegalArgumentException("unknown resource: " + id);
+                }
+                return new ByteArrayInputStream(caCertificate);
+            }
+        };
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences.computeIfAbsent(name, n -> new Preferences());
+    }
+
+    private static final class Preferences implements SharedPreferences {
+
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            Object v = values.get(key);
+            return v instanceof String ? (String) v : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            Object v = values.get(key);
+            return v instanceof Set ? new HashSet<>((Set<String>) v) : defValues;
+        }
+
+        @Override
+        public Editor edit() {
+            Map<String, Object> changes = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putString(String key, String value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> v) {
+                    changes.put(key, v != null ? new HashSet<>(v) : null);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    changes.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    synchronized (Preferences.this) {
+                        for (Map.Entry<String, Object> e : changes.entrySet()) {
+                            if (e.getValue() == null) {
+                                values.remove(e.getKey());
+                            } else {
+                                values.put(e.getKey(), e.getValue());
+                            }
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.jaszczurtd.sipclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TCP proxy between the client and the broker's TLS port which can impair the path
+ * at any time: added one way latency, a bandwidth cap, a stall (nothing gets through
+ * but the connections stay open, like a dead NAT mapping or a radio that went away)
+ * and hard resets (RST on both sides). Impairments apply to both directions.
+ */
+final class HarnessProxy implements Closeable {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    //bandwidth cap is applied in slices, so a big chunk doesn't arrive in one burst
+    private static final int SLICES_PER_SECOND = 50;
+
+    private final ServerSocket server;
+    private final InetSocketAddress target;
+    private final Set<Link> links = ConcurrentHashMap.newKeySet();
+    private final Object stallLock = new Object();
+    private boolean stalled;  //guarded by stallLock
+    private volatile long latencyMs;
+    private volatile long bytesPerSecond;
+    private volatile boolean closed;
+
+    HarnessProxy(int listenPort, int targetPort) throws IOException {
+        target = new InetSocketAddress(InetAddress.getLoopbackAddress(), targetPort);
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+        start("proxy-accept", this::acceptLoop);
+    }
+
+    /** One way latency added to every chunk, 0 disables it. */
+    void setLatency(long ms) {
+        latencyMs = ms;
+    }
+
+    /** Cap per direction in bytes per second, 0 means unlimited. */
+    void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Holds all data until {@link #resume()}, connections are kept open. */
+    void stall() {
+        synchronized (stallLock) {
+            stalled = true;
+        }
+    }
+
+    void resume() {
+        synchronized (stallLock) {
+            stalled = false;
+            stallLock.notifyAll();
+        }
+    }
+
+    /**
+     * Silently drops all further data of the connections open now, like a network which
+     * is gone. New connections pass, so this is a handover once the client reconnects.
+     */
+    void blackholeAll() {
+        for (Link link : links) {
+            link.blackholed = true;
+        }
+    }
+
+    /** Resets every open connection, both peers see a RST. */
+    void resetAll() {
+        for (Link link : links) {
+            link.close(true);
+        }
+    }
+
+    /** Removes all impairments. */
+    void heal() {
+        latencyMs = 0;
+        bytesPerSecond = 0;
+        resume();
+    }
+
+    int getConnectionCount() {
+        return links.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        resume();
+        server.close();
+        resetAll();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("proxy accept failed: " + e);
+                }
+                return;
+            }
+            Socket upstream = new Socket();
+            try {
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                upstream.connect(target, CONNECT_TIMEOUT_MS);
+            } catch (IOException e) {
+                System.err.println("proxy connect failed: " + e);
+                closeQuietly(client);
+                closeQuietly(upstream);
+                continue;
+            }
+            Link link = new Link(client, upstream);
+            links.add(link);
+            link.start();
+        }
+    }
+
+    private static final class Chunk {
+        static final Chunk EOF = new Chunk(0, null);
+
+        final long dueNanos;
+        final byte[] data;
+
+        Chunk(long dueNanos, byte[] data) {
+            this.dueNanos = dueNanos;
+            this.data = data;
+        }
+    }
+
+    private final class Link {
+        private final Socket client;
+        private final Socket upstream;
+        private final AtomicBoolean closing = new AtomicBoolean();
+        private volatile boolean blackholed;
+
+        Link(Socket client, Socket upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        void start() {
+            pipe(client, upstream, "up");
+            pipe(upstream, client, "down");
+        }
+
+        private void pipe(Socket from, Socket to, String direction) {
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+            HarnessProxy.start("proxy-read-" + direction, () -> read(from, queue));
+            HarnessProxy.start("proxy-write-" + direction, () -> write(to, queue));
+        }
+
+        private void read(Socket from, BlockingQueue<Chunk> queue) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try {
+                InputStream in = from.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMs);
+                    queue.add(new Chunk(due, Arrays.copyOf(buffer, n)));
+                }
+            } catch (IOException e) {
+                //reset or closed, the writer closes the link
+            }
+            queue.add(Chunk.EOF);
+        }
+
+        private void write(Socket to, BlockingQueue<Chunk> queue) {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == Chunk.EOF) {
+                        break;
+                    }
+                    long wait = chunk.dueNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    send(out, chunk.data);
+                }
+            } catch (IOException | InterruptedException e) {
+                //peer is gone
+            }
+            close(false);
+        }
+
+        private void send(OutputStream out, byte[] data) throws IOException, InterruptedException {
+            int offset = 0;
+            while (offset < data.length) {
+                awaitNotStalled();
+                if (closing.get()) {
+                    throw new IOException("link closed");
+                }
+                if (blackholed) {
+                    return;
+                }
+                long cap = bytesPerSecond;
+                int n = cap > 0 ? (int) Math.max(1, Math.min(data.length - offset, cap / SLICES_PER_SECOND)) :
+                        data.length - offset;
+                out.write(data, offset, n);
+                out.flush();
+                offset += n;
+                if (cap > 0) {
+                    TimeUnit.NANOSECONDS.sleep(TimeUnit.SECONDS.toNanos(n) / cap);
+                }
+            }
+        }
+
+        private void awaitNotStalled() throws InterruptedException {
+            synchronized (stallLock) {
+                while (stalled && !closing.get()) {
+                    stallLock.wait(100);
+                }
+            }
+        }
+
+        void close(boolean reset) {
+            if (!closing.compareAndSet(false, true)) {
+                return;
+            }
+            links.remove(this);
+            if (reset) {
+                try {
+                    client.setSoLinger(true, 0);
+                    upstream.setSoLinger(true, 0);
+                } catch (IOException e) {
+                    //already closed
+                }
+            }
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //nothing to do
+        }
+    }
+}
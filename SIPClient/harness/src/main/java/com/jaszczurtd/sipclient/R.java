@@ -0,0 +1,9 @@
+package com.jaszczurtd.sipclient;
+
+/** Stand-in for the generated R class, only the CA certificate is needed. */
+public final class R {
+
+    public static final class raw {
+        public static final int ca = 1;
+    }
+}
@@ -0,0 +1,369 @@
+package com.jaszczurtd.sipclient;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the real {@link MQTTClient} against an embedded TLS broker through
+ * {@link HarnessProxy} and impairs the path in scripted scenarios. For each scenario
+ * it reports how long the client needed to notice the loss and to get back, and how
+ * many of the sequence numbered QoS 0/1/2 publishes were lost or duplicated as seen
+ * by a subscriber connected to the broker directly.
+ *
+ * ./gradlew :harness:run --args="[--keepalive seconds] [scenario ...]"
+ *
+ * Moquette speaks MQTT 3.1.1 only, so the MQTT 5 transport isn't covered here.
+ */
+public final class ReconnectHarness implements Constants {
+
+    //MQTTClient always connects to ssl://<broker>:8883, so that's where the proxy listens
+    private static final int PROXY_PORT = 8883;
+    private static final int DEFAULT_HARNESS_KEEPALIVE_S = 5;
+    private static final long PUBLISH_INTERVAL_MS = 100;
+    private static final long WARMUP_MS = 2000;
+    //publishing goes on for a while after the client is back
+    private static final long RECOVERY_MS = 3000;
+    private static final long CONNECT_TIMEOUT_MS = 30000;
+    private static final long RECONNECT_TIMEOUT_MS = 120000;
+    private static final long DRAIN_TIMEOUT_MS = 30000;
+    private static final String TOPIC_ROOT = "harness/";
+
+    private interface Impairment {
+        void apply(HarnessProxy proxy, MQTTClient client);
+    }
+
+    private static final class Scenario {
+        final String name;
+        final long durationMs;
+        //the client is expected to lose the connection
+        final boolean disconnects;
+        //the client is expected to connect again, with or without noticing a loss
+        final boolean reconnects;
+        final Impairment inject;
+
+        Scenario(String name, long durationMs, boolean disconnects, Impairment inject) {
+            this(name, durationMs, disconnects, disconnects, inject);
+        }
+
+        Scenario(String name, long durationMs, boolean disconnects, boolean reconnects, Impairment inject) {
+            this.name = name;
+            this.durationMs = durationMs;
+            this.disconnects = disconnects;
+            this.reconnects = reconnects;
+            this.inject = inject;
+        }
+    }
+
+    /** Status callbacks of the client under test, times in System.nanoTime(). */
+    private static final class Events implements MQTTClient.MQTTStatusListener {
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicLong lastConnected = new AtomicLong();
+        final AtomicLong lastLost = new AtomicLong();
+        //first loss since the last reset to 0
+        final AtomicLong firstLost = new AtomicLong();
+
+        @Override
+        public void onConnected() {
+            lastConnected.set(System.nanoTime());
+            connects.incrementAndGet();
+        }
+
+        @Override
+        public void onProgress() {
+        }
+
+        @Override
+        public void onDisconnected() {
+            long now = System.nanoTime();
+            lastLost.set(now);
+            firstLost.compareAndSet(0, now);
+        }
+
+        @Override
+        public void onConnectionFailed(String reason) {
+            System.err.println("connection failed: " + reason);
+        }
+    }
+
+    /** What the publishing side saw for one QoS. */
+    private static final class Sent {
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger timedOut = new AtomicInteger();
+    }
+
+    /** What the direct subscriber saw on one topic. */
+    private static final class Received {
+        final Set<String> unique = new HashSet<>();
+        int total;
+
+        synchronized void add(String seq) {
+            total++;
+            unique.add(seq);
+        }
+
+        synchronized int unique() {
+            return unique.size();
+        }
+
+        synchronized int total() {
+            return total;
+        }
+    }
+
+    private final int keepAlive;
+    private final HarnessCertificates certificates;
+    private final HarnessProxy proxy;
+    private final Map<String, Received> received = new ConcurrentHashMap<>();
+    private final List<String> rows = new ArrayList<>();
+
+    private ReconnectHarness(int keepAlive, HarnessCertificates certificates, HarnessProxy proxy) {
+        this.keepAlive = keepAlive;
+        this.certificates = certificates;
+        this.proxy = proxy;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keepAlive = DEFAULT_HARNESS_KEEPALIVE_S;
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--keepalive".equals(args[i]) && i + 1 < args.length) {
+                keepAlive = Integer.parseInt(args[++i]);
+            } else {
+                selected.add(args[i]);
+            }
+        }
+
+        File dir = Files.createTempDirectory("mqtt-harness").toFile();
+        HarnessCertificates certificates = new HarnessCertificates(dir);
+        HarnessBroker broker = new HarnessBroker(certificates);
+        HarnessProxy proxy = new HarnessProxy(PROXY_PORT, broker.tlsPort);
+        ContextProvider.setContext(new HarnessContext(dir, certificates.caPem));
+
+        ReconnectHarness harness = new ReconnectHarness(keepAlive, certificates, proxy);
+        MqttClient subscriber = harness.subscribe(broker.plainPort);
+        int status = 0;
+        try {
+            for (Scenario s : harness.scenarios()) {
+                if (selected.isEmpty() || selected.contains(s.name)) {
+                    harness.run(s, new File(dir, s.name));
+                }
+            }
+            harness.printSummary();
+        } catch (Exception e) {
+            System.err.println("harness failed: " + e);
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            subscriber.disconnect();
+            subscriber.close();
+            proxy.close();
+            broker.stop();
+        }
+        //Moquette and Paho leave non daemon threads behind
+        System.exit(status);
+    }
+
+    private List<Scenario> scenarios() {
+        long keepAliveMs = TimeUnit.SECONDS.toMillis(keepAlive);
+        return Arrays.asList(
+                new Scenario("baseline", 5000, false, (p, c) -> { }),
+                new Scenario("latency", 10000, false, (p, c) -> p.setLatency(400)),
+                new Scenario("bandwidth", 10000, false, (p, c) -> p.setBandwidth(2048)),
+                //long enough for the keepalive to run out (Paho gives up after about 2x keepalive)
+                new Scenario("stall", 3 * keepAliveMs, true, (p, c) -> p.stall()),
+                new Scenario("reset", 0, true, (p, c) -> p.resetAll()),
+                //the old path goes dead and NetworkMonitor reports the new default network
+                new Scenario("handover", 0, false, true, (p, c) -> {
+                    p.blackholeAll();
+                    c.networkChanged();
+                }),
+                new Scenario("flapping", 10000, true, (p, c) -> {
+                    for (int i = 0; i < 5; i++) {
+                        p.resetAll();
+                        sleep(2000);
+                    }
+                }));
+    }
+
+    private MqttClient subscribe(int port) throws Exception {
+        MqttClient subscriber = new MqttClient("tcp://127.0.0.1:" + port, "harness-subscriber",
+                new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        subscriber.connect(options);
+        subscriber.subscribe(TOPIC_ROOT + "#", 2, (topic, message) ->
+                received.computeIfAbsent(topic, t -> new Received())
+                        .add(new String(message.getPayload(), StandardCharsets.UTF_8)));
+        return subscriber;
+    }
+
+    private static String topic(Scenario s, int qos) {
+        return TOPIC_ROOT + s.name + "/qos" + qos;
+    }
+
+    private void run(Scenario s, File filesDir) throws Exception {
+        System.out.println("== " + s.name + ", keepalive " + keepAlive + " s");
+        proxy.heal();
+        Events events = new Events();
+        MQTTClient client = new MQTTClient(new HarnessContext(filesDir, certificates.caPem),
+                "127.0.0.1", "harness", "harness", events);
+        for (int qos = 0; qos <= 2; qos++) {
+            client.setTopicQos(topic(s, qos), qos);
+        }
+        await("connect", CONNECT_TIMEOUT_MS, () -> events.connects.get() > 0);
+        //the keepalive is taken from the next connect on
+        client.setKeepAliveInterval(keepAlive);
+        int resumedBefore = MQTTSocketFactory.getResumedHandshakes();
+        client.reconnect();
+        await("reconnect with keepalive", CONNECT_TIMEOUT_MS, () -> events.connects.get() > 1);
+        //the factory keeps its session cache, so a reconnect is an abbreviated handshake
+        if (MQTTSocketFactory.getResumedHandshakes() <= resumedBefore) {
+            throw new IllegalStateException("TLS session not resumed on reconnect (full: " +
+                    MQTTSocketFactory.getFullHandshakes() + " resumed: " +
+                    MQTTSocketFactory.getResumedHandshakes() + ")");
+        }
+        client.getMetrics().reset();
+
+        Sent[] sent = {new Sent(), new Sent(), new Sent()};
+        ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor();
+        publisher.scheduleAtFixedRate(() -> {
+            for (int qos = 0; qos <= 2; qos++) {
+                publish(client, topic(s, qos), sent[qos]);
+            }
+        }, 0, PUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        sleep(WARMUP_MS);
+        events.firstLost.set(0);
+        int connectsBefore = events.connects.get();
+        long injected = System.nanoTime();
+        s.inject.apply(proxy, client);
+        long left = s.durationMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - injected);
+        if (left > 0) {
+            sleep(left);
+        }
+        proxy.heal();
+        long healed = System.nanoTime();
+
+        if (s.disconnects) {
+            await("connection loss", RECONNECT_TIMEOUT_MS, () -> events.firstLost.get() != 0);
+        }
+        boolean disconnected = events.firstLost.get() != 0;
+        boolean reconnected = disconnected || s.reconnects;
+        if (reconnected) {
+            await("reconnect", RECONNECT_TIMEOUT_MS, () -> events.connects.get() > connectsBefore
+                    && events.lastConnected.get() > events.lastLost.get() && client.isConnected());
+        }
+        sleep(RECOVERY_MS);
+        publisher.shutdown();
+        publisher.awaitTermination(1, TimeUnit.SECONDS);
+
+        //QoS 0 is fire and forget, wait only for the acknowledged ones
+        long drainStart = System.currentTimeMillis();
+        while (System.currentTimeMillis() - drainStart < DRAIN_TIMEOUT_MS &&
+                (received(s, 1).unique() < sent[1].published.get() ||
+                        received(s, 2).unique() < sent[2].published.get())) {
+            sleep(100);
+        }
+        sleep(1000);
+
+        MQTTMetrics metrics = client.getMetrics();
+        System.out.println(metrics.report());
+        client.stop();
+
+        String detect = "-", reconnect = "-", afterHeal = "-";
+        if (reconnected) {
+            //first loss after the injection, the reconnect is the one after the last loss (flapping);
+            //a reconnect without a reported loss (handover) counts from the injection
+            long from = disconnected ? events.lastLost.get() : injected;
+            if (disconnected) {
+                detect = String.valueOf(TimeUnit.NANOSECONDS.toMillis(events.firstLost.get() - injected));
+            }
+            reconnect = String.valueOf(TimeUnit.NANOSECONDS.toMillis(events.lastConnected.get() - from));
+            afterHeal = String.valueOf(Math.max(0, TimeUnit.NANOSECONDS.toMillis(events.lastConnected.get() - healed)));
+        }
+        for (int qos = 0; qos <= 2; qos++) {
+            Received r = received(s, qos);
+            int published = sent[qos].published.get();
+            rows.add(String.format("%-10s %4d %9s %12s %10s %6d %6d %6d %5d %9d %7d %8d",
+                    s.name, qos, detect, reconnect, afterHeal, published, r.total(),
+                    Math.max(0, published - r.unique()), r.total() - r.unique(),
+                    sent[qos].delivered.get(), sent[qos].failed.get(), sent[qos].timedOut.get()));
+        }
+        rows.add(String.format("%-10s losses %d, reconnects %d, connect failures %d",
+                "", metrics.getConnectionLosses(), metrics.getReconnects(), metrics.getConnectFailures()));
+    }
+
+    private Received received(Scenario s, int qos) {
+        return received.computeIfAbsent(topic(s, qos), t -> new Received());
+    }
+
+    private static void publish(MQTTClient client, String topic, Sent sent) {
+        String seq = String.valueOf(sent.published.getAndIncrement());
+        client.publish(topic, seq, false, new MQTTClient.MQTTMessageDelivered() {
+            @Override
+            public void onMessageDelivered() {
+                sent.delivered.incrementAndGet();
+            }
+
+            @Override
+            public void onDeliveryTimeout() {
+                sent.timedOut.incrementAndGet();
+            }
+
+            @Override
+            public void onDeliveryFailed(String reason) {
+                sent.failed.incrementAndGet();
+            }
+        });
+    }
+
+    private void printSummary() {
+        System.out.println();
+        System.out.println("detect: injection until connectionLost, reconnect: connectionLost (or the injection) until connected,");
+        System.out.println("after heal: impairment removed until connected, times in ms; lost/dup as seen by the broker side subscriber");
+        System.out.println(String.format("%-10s %4s %9s %12s %10s %6s %6s %6s %5s %9s %7s %8s",
+                "scenario", "qos", "detect", "reconnect", "after heal", "sent", "recv", "lost", "dup",
+                "delivered", "failed", "timeout"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static void await(String what, long timeoutMs, BooleanSupplier condition) {
+        long start = System.currentTimeMillis();
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() - start > timeoutMs) {
+                throw new IllegalStateException("timed out waiting for " + what);
+            }
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -28,4 +28,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "SIP Client"
 include(":app")
+include(":benchmarks")
+include(":harness")
  
\ No newline at end of file